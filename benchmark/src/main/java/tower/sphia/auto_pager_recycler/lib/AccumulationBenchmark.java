@@ -0,0 +1,83 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The page accumulation of {@code AutoPagerLoader}: the cost of adding one page to the loaded pages, which
+ * should stay flat as the number of pages grows, and a whole session of loading the pages one by one through
+ * the paging engine, fetched on the calling thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccumulationBenchmark {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+    private static final PageFetcher.Listener NO_LISTENER = new PageFetcher.Listener() {
+        @Override
+        public void onPageFetched(int index) {
+        }
+    };
+    @Param({"10", "100", "1000", "10000"})
+    public int pageCount;
+    @Param({"10", "50"})
+    public int pageSize;
+    private List<Page<Integer>> mPageList;
+    private PageMap<Page<Integer>> mPages;
+    private Page<Integer> mNextPage;
+
+    @Setup
+    public void setUp() {
+        mPageList = BenchmarkPage.create(pageCount, pageSize, 0, true);
+        mPages = BenchmarkPage.toPageMap(mPageList);
+        mNextPage = new BenchmarkPage(pageCount + 1, pageSize, pageCount + 1);
+    }
+
+    /**
+     * Add the next page to {@link #pageCount} loaded pages, as every merge does
+     */
+    @Benchmark
+    public PageMap<Page<Integer>> appendOne() {
+        return mPages.put(mNextPage);
+    }
+
+    /**
+     * Load and merge {@link #pageCount} pages one by one, divide by the count for the cost per load
+     */
+    @Benchmark
+    public PageMap<Page<Integer>> loadSession() {
+        PagingEngine<Page<Integer>> engine = new PagingEngine<>(new PageFetcher.Source<Page<Integer>>() {
+            @Override
+            public Page<Integer> newPage(int index, CancellationToken token) {
+                return mPageList.get(index - 1);
+            }
+        }, NO_LISTENER, DIRECT);
+        PageMap<Page<Integer>> pages = null;
+        for (int i = 1; i <= pageCount; i++) {
+            engine.load(i);
+            pages = engine.merge();
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,82 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A page of {@code size} items of a source of {@code last} pages, the items of each page are distinct
+ */
+class BenchmarkPage extends ArrayList<Integer> implements Page<Integer> {
+    private final int mIndex;
+    private final int mLast;
+
+    BenchmarkPage(int index, int size, int last) {
+        super(size);
+        mIndex = index;
+        mLast = last;
+        for (int i = 0; i < size; i++) {
+            add(index * size + i);
+        }
+    }
+
+    @Override
+    public int index() {
+        return mIndex;
+    }
+
+    @Override
+    public int last() {
+        return mLast;
+    }
+
+    /**
+     * @return pages from {@code 1} to {@code count} of {@code size} items each, skipping every
+     * {@code gapEvery}-th page if it's greater than 0
+     */
+    static List<Page<Integer>> create(int count, int size, int gapEvery, boolean randomAccess) {
+        List<Page<Integer>> pages = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            if (gapEvery > 0 && i % gapEvery == 0) {
+                continue;
+            }
+            BenchmarkPage page = new BenchmarkPage(i, size, count);
+            pages.add(randomAccess ? page : new IterablePage(page));
+        }
+        return pages;
+    }
+
+    static PageMap<Page<Integer>> toPageMap(List<Page<Integer>> pages) {
+        PageMap<Page<Integer>> map = PageMap.empty();
+        for (Page<Integer> page : pages) {
+            map = map.put(page);
+        }
+        return map;
+    }
+
+    /**
+     * A page which could merely be iterated, so its elements are copied when it's indexed
+     */
+    static class IterablePage implements Page<Integer> {
+        private final BenchmarkPage mPage;
+
+        IterablePage(BenchmarkPage page) {
+            mPage = page;
+        }
+
+        @Override
+        public int index() {
+            return mPage.index();
+        }
+
+        @Override
+        public int last() {
+            return mPage.last();
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return mPage.iterator();
+        }
+    }
+}
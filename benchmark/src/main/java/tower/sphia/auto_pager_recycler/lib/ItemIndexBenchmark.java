@@ -0,0 +1,92 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The flattening done by {@code AutoPagerAdapter.setItems()}: indexing all pages from scratch, indexing them
+ * again with the previous index, appending the next page, and diffing the rebuilt items after the first page
+ * is refreshed with a new item at the top.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ItemIndexBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int pageCount;
+    @Param({"10", "50"})
+    public int pageSize;
+    /**
+     * Whether the pages are lists read in place, or merely iterable and copied
+     */
+    @Param({"true", "false"})
+    public boolean randomAccess;
+    private PageMap<Page<Integer>> mPages;
+    private PageMap<Page<Integer>> mRefreshed;
+    private ItemIndex<Integer> mIndex;
+    private ItemIndex<Integer> mRefreshedIndex;
+    private Page<Integer> mNextPage;
+
+    @Setup
+    public void setUp() {
+        List<Page<Integer>> pages = BenchmarkPage.create(pageCount, pageSize, 0, randomAccess);
+        mPages = BenchmarkPage.toPageMap(pages);
+        mIndex = ItemIndex.build(mPages, false, null);
+        BenchmarkPage first = new BenchmarkPage(1, pageSize, pageCount);
+        first.add(0, -1);
+        mRefreshed = mPages.put(first);
+        mRefreshedIndex = ItemIndex.build(mRefreshed, false, mIndex);
+        mNextPage = new BenchmarkPage(pageCount + 1, pageSize, pageCount + 1);
+    }
+
+    @Benchmark
+    public ItemIndex<Integer> build() {
+        return ItemIndex.build(mPages, false, null);
+    }
+
+    @Benchmark
+    public ItemIndex<Integer> rebuild() {
+        return ItemIndex.build(mPages, false, mIndex);
+    }
+
+    @Benchmark
+    public ItemIndex<Integer> append() {
+        return mIndex.append(mNextPage, false, new int[0]);
+    }
+
+    @Benchmark
+    public List<ItemDiff.Op> diffRefreshed() {
+        final ItemIndex<Integer> oldIndex = mIndex;
+        final ItemIndex<Integer> newIndex = mRefreshedIndex;
+        return ItemDiff.diff(oldIndex.size(), newIndex.size(), new ItemDiff.Callback() {
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                int type = oldIndex.getType(oldPosition);
+                if (type != newIndex.getType(newPosition)) {
+                    return false;
+                }
+                return type != ItemIndex.ITEM || oldIndex.getItem(oldPosition).equals(newIndex.getItem(newPosition));
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return true;
+            }
+        });
+    }
+}
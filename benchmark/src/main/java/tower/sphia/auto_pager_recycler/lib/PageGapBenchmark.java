@@ -0,0 +1,64 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Divider insertion for pages missing in the middle, e.g. after eviction or a jump to a page: indexing pages
+ * with a gap every few pages, filling a gap and indexing again, and finding the next missing page.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PageGapBenchmark {
+    @Param({"10", "100", "1000", "10000"})
+    public int pageCount;
+    @Param({"10", "50"})
+    public int pageSize;
+    /**
+     * Every this-th page is missing
+     */
+    @Param({"2", "10"})
+    public int gapEvery;
+    private PageMap<Page<Integer>> mPages;
+    private ItemIndex<Integer> mIndex;
+    private Page<Integer> mGapPage;
+
+    @Setup
+    public void setUp() {
+        mPages = BenchmarkPage.toPageMap(BenchmarkPage.create(pageCount, pageSize, gapEvery, true));
+        mIndex = ItemIndex.build(mPages, false, null);
+        // the gap in the middle
+        int gap = Math.max(gapEvery, pageCount / 2 / gapEvery * gapEvery);
+        mGapPage = new BenchmarkPage(gap, pageSize, pageCount);
+    }
+
+    @Benchmark
+    public ItemIndex<Integer> buildWithDividers() {
+        return ItemIndex.build(mPages, false, null);
+    }
+
+    @Benchmark
+    public ItemIndex<Integer> fillGap() {
+        return ItemIndex.build(mPages.put(mGapPage), false, mIndex);
+    }
+
+    @Benchmark
+    public int nextMissing() {
+        return mPages.nextMissing(pageCount / 2);
+    }
+}
@@ -0,0 +1,76 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lookups done while binding and scrolling: the type, the element and the page of an adapter position,
+ * and the adapter position of an item of a page, at random positions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PositionLookupBenchmark {
+    private static final int LOOKUPS = 1024;
+    @Param({"10", "100", "1000", "10000"})
+    public int pageCount;
+    @Param({"10", "50"})
+    public int pageSize;
+    private ItemIndex<Integer> mIndex;
+    private final int[] mPositions = new int[LOOKUPS];
+    private final int[] mPageIndices = new int[LOOKUPS];
+
+    @Setup
+    public void setUp() {
+        mIndex = ItemIndex.build(BenchmarkPage.toPageMap(BenchmarkPage.create(pageCount, pageSize, 0, true)),
+                false, null);
+        Random random = new Random(42);
+        for (int i = 0; i < LOOKUPS; i++) {
+            // the footer at the end is left out
+            mPositions[i] = random.nextInt(mIndex.size() - 1);
+            mPageIndices[i] = 1 + random.nextInt(pageCount);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void bind(Blackhole blackhole) {
+        for (int position : mPositions) {
+            blackhole.consume(mIndex.getType(position));
+            blackhole.consume(mIndex.getItem(position));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void pageOfPosition(Blackhole blackhole) {
+        for (int position : mPositions) {
+            blackhole.consume(mIndex.getPageIndex(position));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LOOKUPS)
+    public void positionOfPage(Blackhole blackhole) {
+        for (int pageIndex : mPageIndices) {
+            blackhole.consume(mIndex.getPosition(pageIndex, 0));
+        }
+    }
+}
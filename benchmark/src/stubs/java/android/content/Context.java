@@ -0,0 +1,10 @@
+package android.content;
+
+import java.io.File;
+
+/**
+ * Stub of the Android class for the benchmarks, only referenced by PageCache
+ */
+public abstract class Context {
+    public abstract File getCacheDir();
+}
@@ -0,0 +1,13 @@
+package android.os;
+
+/**
+ * Stub of the Android class for the benchmarks
+ */
+public final class SystemClock {
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000;
+    }
+}
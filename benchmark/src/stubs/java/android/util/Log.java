@@ -0,0 +1,21 @@
+package android.util;
+
+/**
+ * Stub of the Android class for the benchmarks, logging nothing
+ */
+public final class Log {
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) {
+        return 0;
+    }
+
+    public static int e(String tag, String msg) {
+        return 0;
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return 0;
+    }
+}
@@ -0,0 +1,87 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import android.os.SystemClock;
+
+/**
+ * A {@link PrefetchPolicy} which adapts the zone size to the scrolling velocity, the row height and
+ * the measured page loading latency, so that the next page is expected to be delivered before the
+ * footer scrolls into the screen during a steady fling.
+ * <p>
+ * The zone size is the number of rows scrolled past while a page is loading, multiplied by a
+ * safety factor and clamped between a minimum and a maximum.
+ */
+public class AdaptivePrefetchPolicy implements PrefetchPolicy {
+    /**
+     * The weight of a new sample in the exponential moving averages
+     */
+    private static final float SMOOTHING = 0.3f;
+    private static final float SAFETY_FACTOR = 1.5f;
+    /**
+     * A scroll event arriving later than this after the last one starts a new scroll
+     */
+    private static final long SCROLL_GAP_MILLIS = 100;
+    private static final int DEFAULT_MIN_ZONE_SIZE = 3;
+    private static final int DEFAULT_MAX_ZONE_SIZE = 100;
+    private final int mMinZoneSize;
+    private final int mMaxZoneSize;
+    /**
+     * The average scrolling velocity in pixels per millisecond, only scrolling down is counted
+     */
+    private float mVelocity;
+    private float mLatencyMillis;
+    private int mRowHeight;
+    private long mLastScrollTime;
+
+    /**
+     * A policy with a zone of 3 to 100 rows, independent of {@link AutoPagerManager#setAutoPagerZoneSize(int)}
+     */
+    public AdaptivePrefetchPolicy() {
+        this(DEFAULT_MIN_ZONE_SIZE, DEFAULT_MAX_ZONE_SIZE);
+    }
+
+    /**
+     * @param minZoneSize the zone size used when the user scrolls slowly or pages load fast
+     * @param maxZoneSize the upper bound of the zone size
+     */
+    public AdaptivePrefetchPolicy(int minZoneSize, int maxZoneSize) {
+        if (minZoneSize <= 0 || maxZoneSize < minZoneSize) {
+            throw new IllegalArgumentException();
+        }
+        mMinZoneSize = minZoneSize;
+        mMaxZoneSize = maxZoneSize;
+    }
+
+    @Override
+    public void onScrolled(int dy, int averageRowHeight) {
+        if (averageRowHeight > 0) {
+            mRowHeight = averageRowHeight;
+        }
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - mLastScrollTime;
+        mLastScrollTime = now;
+        if (elapsed <= 0 || elapsed > SCROLL_GAP_MILLIS) {
+            // the first event of a scroll, no velocity could be measured
+            return;
+        }
+        float velocity = Math.max(dy, 0) / (float) elapsed;
+        mVelocity += (velocity - mVelocity) * SMOOTHING;
+    }
+
+    @Override
+    public void onPageLoaded(long latencyMillis) {
+        if (mLatencyMillis == 0) {
+            mLatencyMillis = latencyMillis;
+        } else {
+            mLatencyMillis += (latencyMillis - mLatencyMillis) * SMOOTHING;
+        }
+    }
+
+    @Override
+    public int getZoneSize() {
+        if (mRowHeight == 0) {
+            return mMinZoneSize;
+        }
+        float rows = mVelocity * mLatencyMillis / mRowHeight * SAFETY_FACTOR;
+        return (int) Math.max(mMinZoneSize, Math.min(mMaxZoneSize, Math.ceil(rows)));
+    }
+}
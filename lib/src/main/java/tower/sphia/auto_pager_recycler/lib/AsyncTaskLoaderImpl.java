@@ -46,10 +46,18 @@ public abstract class AsyncTaskLoaderImpl<D> extends AsyncTaskLoader<D> {
 
         // Invalidate the old data as we don't need it any more.
         if (oldData != null && oldData != data) {
-            releaseResources(oldData);
+            onDataReplaced(oldData, data);
         }
     }
 
+    /**
+     * Called after {@code newData} has been delivered in place of {@code oldData}.
+     * The old data is released by default, override it if the two share resources.
+     */
+    protected void onDataReplaced(D oldData, D newData) {
+        releaseResources(oldData);
+    }
+
 
     /****************************************************/
     /** (1) A task that performs the asynchronous load **/
@@ -1,35 +1,77 @@
 package tower.sphia.auto_pager_recycler.lib;
 
-import android.support.annotation.NonNull;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.StaggeredGridLayoutManager;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.SortedMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * An adapter for a {@link RecyclerView} which enables and helps handle special item views including foot views
  * the ending view and load-more indicators.
  */
 public abstract class AutoPagerAdapter<P extends Page<E>, E> extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
-    public static final int ITEM = 1;
-    public static final int DIVIDER = 2;
-    public static final int FOOTER = 3;
-    public static final int END = 4;
+    public static final int ITEM = ItemIndex.ITEM;
+    public static final int DIVIDER = ItemIndex.DIVIDER;
+    public static final int FOOTER = ItemIndex.FOOTER;
+    public static final int END = ItemIndex.END;
+    public static final int PLACEHOLDER = ItemIndex.PLACEHOLDER;
+    public static final int ERROR = ItemIndex.ERROR;
     private static final String TAG = "AutoPagerAdapter";
+    /**
+     * The worker thread flattening the pages and computing the differences between items
+     */
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "AutoPagerAdapter diff");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
     public static boolean DEBUG = false;
-    private List<ItemWrapper<E>> mItems = new ArrayList<>();
+    private static final int VIEW_TYPE_CACHE_SIZE = 64;
+    private ItemIndex<E> mItems = ItemIndex.empty();
     private int mFooterRes;
     private int mEnderRes;
     private int mLoaderRes;
+    private int mPlaceholderRes;
+    private int mErrorRes;
+    private ViewTypeRegistry<E> mViewTypeRegistry;
+    /**
+     * The view types resolved last, by adapter position modulo the size, see {@link #getItemViewType(int)}
+     */
+    @SuppressWarnings("unchecked")
+    private final ItemIndex<E>[] mViewTypeItems = new ItemIndex[VIEW_TYPE_CACHE_SIZE];
+    private final int[] mViewTypePositions = new int[VIEW_TYPE_CACHE_SIZE];
+    private final int[] mViewTypes = new int[VIEW_TYPE_CACHE_SIZE];
+    /**
+     * The number of placeholders of a missing page in the sparse mode, or 0
+     */
+    private int mSparsePageSize;
     private boolean mInLastPage = false;
     private AdapterCallbacks mCallbacks;
+    /**
+     * The pages of the displayed items, used to decide whether the new pages could be appended incrementally
+     */
+    private PageMap<P> mPages;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Increased on every call of {@link #setItems(PageMap)}, the items flattened for an older generation are discarded
+     */
+    private int mGeneration;
 
     public AutoPagerAdapter(AdapterCallbacks callbacks) {
         this();
@@ -40,6 +82,8 @@ public abstract class AutoPagerAdapter<P extends Page<E>, E> extends RecyclerVie
         mFooterRes = R.layout.item_footer;
         mEnderRes = R.layout.item_end;
         mLoaderRes = R.layout.item_load_more;
+        mPlaceholderRes = R.layout.item_placeholder;
+        mErrorRes = R.layout.item_error;
     }
 
     public AdapterCallbacks getCallbacks() {
@@ -63,52 +107,312 @@ public abstract class AutoPagerAdapter<P extends Page<E>, E> extends RecyclerVie
         mLoaderRes = loaderRes;
     }
 
+    public void setPlaceholderRes(int placeholderRes) {
+        mPlaceholderRes = placeholderRes;
+    }
+
+    public void setErrorRes(int errorRes) {
+        mErrorRes = errorRes;
+    }
+
     /**
-     * Converting the container of pages to a container of elements/items
+     * Give the elements of the registered classes their own view types, created and bound by the factories
+     * of the registry instead of {@link #onCreateItemViewHolder(ViewGroup, int)} and
+     * {@link #onBindItemViewHolder(RecyclerView.ViewHolder, int)}. Set it before the adapter is attached.
+     *
+     * @param registry the registry, or null by default to use the methods of the adapter for all elements
+     */
+    public void setViewTypeRegistry(ViewTypeRegistry<E> registry) {
+        mViewTypeRegistry = registry;
+        Arrays.fill(mViewTypeItems, null);
+    }
+
+    public ViewTypeRegistry<E> getViewTypeRegistry() {
+        return mViewTypeRegistry;
+    }
+
+    /**
+     * Enable the sparse mode: every page which isn't loaded, up to {@link Page#last()}, is shown as
+     * {@code pageSize} lightweight placeholders instead of a divider, so the item count is the full count
+     * from the first page on, and a fast scroller could jump anywhere. When a placeholder is bound, its page
+     * is requested through {@link SparseAdapterCallbacks#onBindPlaceholder(int)}, so only the pages jumped
+     * to are loaded. A loaded page replaces its placeholders in place.
+     * <p>
+     * It takes effect on the next {@link #setItems(PageMap)}.
+     *
+     * @param pageSize the number of items of a full page, 0 by default to show dividers
+     */
+    public void setSparsePageSize(int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException();
+        }
+        mSparsePageSize = pageSize;
+    }
+
+    /**
+     * Converting the container of pages to a container of elements/items.
+     * The items are flattened from the pages on a worker thread, and only the new items are swapped in on
+     * the main thread. If the only difference from the displayed pages is a new trailing page, its items
+     * are appended and notified as an inserted range, the same as the items added to the last page by
+     * {@link AutoPagerLoader#publishPartialPage(Page)}. Otherwise all items are rebuilt, and the difference
+     * from the displayed items is computed by {@link #areItemsTheSame(Object, Object)} and
+     * {@link #areContentsTheSame(Object, Object)}, then dispatched as granular notifications, so a page
+     * replaced by a refreshed one only notifies the changed items, and pages evicted far above don't move
+     * the visible items. If newer pages are set before the items are swapped in, they're discarded.
+     * Once the items are swapped in, {@link SwapAdapterCallbacks#onItemsSwapped()} is called.
+     * A divider is placed wherever pages are missing, including before the first page if it isn't page 1.
+     * A divider or the footer whose page has failed to load, see {@link PageMap#getFailedPages()}, is replaced
+     * by an error row, which loads the page again when tapped.
      *
      * @param pages the data of all pages that have been loaded
      */
-    public void setItems(TreeMap<Integer, P> pages) {
+    public void setItems(final PageMap<P> pages) {
         if (DEBUG) Log.d(TAG, "setItems() called with " + "pages.size() = [" + pages.size() + "]");
-        mItems.clear();
-        int prev = -1;
+        final int generation = ++mGeneration;
+        // the displayed items stay the same until a newer generation is swapped in
+        final ItemIndex<E> oldItems = mItems;
+        final boolean inLastPage = mInLastPage;
+        final int pageSize = mSparsePageSize;
+        final int[] failedPages = pages.getFailedPages();
+        // in the sparse mode, a new trailing page replaces placeholders rather than being appended
+        final boolean append = pageSize == 0 && oldItems.size() != 0 && pages.isAppendOf(mPages);
+        final boolean grow = pageSize == 0 && oldItems.size() != 0 && pages.isGrowthOf(mPages);
+        DIFF_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ItemIndex<E> newItems;
+                final List<ItemDiff.Op> ops;
+                if (append) {
+                    newItems = oldItems.append(pages.last(), inLastPage, failedPages);
+                    ops = null;
+                } else if (grow) {
+                    newItems = oldItems.grow(pages.last(), inLastPage, failedPages);
+                    ops = null;
+                } else {
+                    newItems = ItemIndex.build(pages, inLastPage, oldItems, pageSize, failedPages);
+                    ops = oldItems.size() == 0 ? null : diff(oldItems, newItems);
+                }
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation != mGeneration) {
+                            if (DEBUG) Log.d(TAG, "setItems() items of generation " + generation + " discarded");
+                            return;
+                        }
+                        trimViewTypeCache(mItems);
+                        mItems = newItems;
+                        mPages = pages;
+                        if ((append || grow) && newItems.size() >= oldItems.size()) {
+                            notifyAppended(oldItems, newItems);
+                        } else if (ops == null) {
+                            notifyDataSetChanged();
+                        } else {
+                            dispatchOps(ops);
+                        }
+                        if (DEBUG) Log.i(TAG, "setItems " + mItems.size());
+                        if (mCallbacks instanceof SwapAdapterCallbacks) {
+                            ((SwapAdapterCallbacks) mCallbacks).onItemsSwapped();
+                        }
+                    }
+                });
+            }
+        });
+    }
 
-        for (Map.Entry<Integer, P> entry : pages.entrySet()) {
-            Page<E> page = entry.getValue();
-            int index = page.index();
+    /**
+     * @param pages the pages keyed by their indices, e.g. a {@code TreeMap<Integer, P>} of existing code
+     * @see #setItems(PageMap)
+     */
+    public void setItems(SortedMap<Integer, ? extends P> pages) {
+        setItems(PageMap.fromMap(pages));
+    }
 
-            if (prev != -1) {
-                if (index != prev + 1) {
-                    mItems.add(ItemWrapper.<E>newDivider(index - 1));
+    /**
+     * Called on the worker thread to compute the difference between the displayed items and the new items
+     */
+    private List<ItemDiff.Op> diff(final ItemIndex<E> oldItems, final ItemIndex<E> newItems) {
+        return ItemDiff.diff(oldItems.size(), newItems.size(), new ItemDiff.Callback() {
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return isSameItem(oldItems, oldPosition, newItems, newPosition);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                int type = oldItems.getType(oldPosition);
+                if (type != newItems.getType(newPosition)) {
+                    // a placeholder replaced by its item or the reverse
+                    return false;
                 }
+                return type != ITEM || oldItems.isSameElement(oldPosition, newItems, newPosition)
+                        || AutoPagerAdapter.this.areContentsTheSame(oldItems.getItem(oldPosition), newItems.getItem(newPosition));
             }
-            prev = index;
-            for (E e : page) {
-                mItems.add(ItemWrapper.newItem(e));
+        });
+    }
+
+    /**
+     * Called on a worker thread to decide whether an old item and a new item represent the same object,
+     * e.g. have the same id. Items are compared by {@link Object#equals(Object)} by default.
+     */
+    protected boolean areItemsTheSame(E oldItem, E newItem) {
+        return oldItem == newItem || oldItem.equals(newItem);
+    }
+
+    /**
+     * Called on a worker thread for the same items to decide whether they are displayed the same,
+     * if not, the item is notified as changed. Items are compared by {@link Object#equals(Object)} by default.
+     */
+    protected boolean areContentsTheSame(E oldItem, E newItem) {
+        return oldItem == newItem || oldItem.equals(newItem);
+    }
+
+    /**
+     * Notify the items of a page appended before the footer, the ending view or the error row
+     */
+    private void notifyAppended(ItemIndex<E> oldItems, ItemIndex<E> newItems) {
+        int start = oldItems.size() - 1;
+        int end = newItems.size() - 1;
+        if (DEBUG) Log.d(TAG, "notifyAppended() inserted " + (end - start) + " items");
+        notifyItemRangeInserted(start, end - start);
+        if (newItems.getType(end) != oldItems.getType(start)) {
+            notifyItemChanged(end);
+        }
+    }
+
+    private void dispatchOps(List<ItemDiff.Op> ops) {
+        for (ItemDiff.Op op : ops) {
+            switch (op.type) {
+                case ItemDiff.Op.INSERT:
+                    notifyItemRangeInserted(op.position, op.count);
+                    break;
+                case ItemDiff.Op.REMOVE:
+                    notifyItemRangeRemoved(op.position, op.count);
+                    break;
+                case ItemDiff.Op.MOVE:
+                    notifyItemMoved(op.position, op.count);
+                    break;
+                case ItemDiff.Op.CHANGE:
+                    notifyItemRangeChanged(op.position, op.count);
+                    break;
+                default:
+                    notifyDataSetChanged();
+                    break;
             }
         }
-        if (mInLastPage) {
-            mItems.add(ItemWrapper.<E>newEnd());
-        } else {
-            mItems.add(ItemWrapper.<E>newFooter());
+    }
+
+    private boolean isSameItem(ItemIndex<E> oldItems, int oldPosition, ItemIndex<E> newItems, int newPosition) {
+        int type = oldItems.getType(oldPosition);
+        int newType = newItems.getType(newPosition);
+        if (type != newType) {
+            // a placeholder stands for the item at the same position of the same page
+            return (type == PLACEHOLDER && newType == ITEM || type == ITEM && newType == PLACEHOLDER)
+                    && isSamePosition(oldItems, oldPosition, newItems, newPosition);
         }
-        if (DEBUG) Log.i(TAG, "setItems " + mItems.size());
-        notifyDataSetChanged();
+        switch (type) {
+            case ITEM:
+                return oldItems.isSameElement(oldPosition, newItems, newPosition)
+                        || areItemsTheSame(oldItems.getItem(oldPosition), newItems.getItem(newPosition));
+            case DIVIDER:
+            case ERROR:
+                return oldItems.getPageIndex(oldPosition) == newItems.getPageIndex(newPosition);
+            case PLACEHOLDER:
+                return isSamePosition(oldItems, oldPosition, newItems, newPosition);
+            default:
+                return true;
+        }
+    }
+
+    private static boolean isSamePosition(ItemIndex<?> oldItems, int oldPosition, ItemIndex<?> newItems, int newPosition) {
+        return oldItems.getPageIndex(oldPosition) == newItems.getPageIndex(newPosition)
+                && oldItems.getPositionInPage(oldPosition) == newItems.getPositionInPage(newPosition);
     }
 
     @Override
     public int getItemViewType(int position) {
-        return mItems.get(position).getType();
+        int type = mItems.getType(position);
+        if (type == ITEM && mViewTypeRegistry != null) {
+            // the element is read only if the row has changed since its view type was resolved
+            int slot = position & (VIEW_TYPE_CACHE_SIZE - 1);
+            ItemIndex<E> cached = mViewTypeItems[slot];
+            if (cached != null && mItems.isSameElement(position, cached, mViewTypePositions[slot])) {
+                return mViewTypes[slot];
+            }
+            type = mViewTypeRegistry.getViewType(mItems.getItem(position));
+            mViewTypeItems[slot] = mItems;
+            mViewTypePositions[slot] = position;
+            mViewTypes[slot] = type;
+        }
+        return type;
+    }
+
+    /**
+     * Forget the view types resolved from items older than {@code items}, so the cache never holds evicted pages
+     * for long
+     */
+    private void trimViewTypeCache(ItemIndex<E> items) {
+        for (int i = 0; i < VIEW_TYPE_CACHE_SIZE; i++) {
+            if (mViewTypeItems[i] != items) {
+                mViewTypeItems[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @return the kind of the row at {@code position}: {@link #ITEM} for any element whatever its view type is,
+     * or the type of a special item, {@link #DIVIDER}, {@link #FOOTER}, {@link #END}, {@link #PLACEHOLDER}
+     * or {@link #ERROR}
+     */
+    public int getRowType(int position) {
+        return mItems.getType(position);
     }
 
     protected abstract RecyclerView.ViewHolder onCreateItemViewHolder(ViewGroup viewGroup, int viewType);
 
     public E getItem(int i) {
-        return mItems.get(i).getItem();
+        return mItems.getItem(i);
+    }
+
+    /**
+     * @return the index of the missing page the divider or the error row at {@code i} stands for
+     */
+    public int getDividerPage(int i) {
+        int type = getRowType(i);
+        if (type != DIVIDER && type != ERROR) {
+            throw new IllegalArgumentException("position " + i + " is not a divider");
+        }
+        return mItems.getPageIndex(i);
     }
 
+    /**
+     * @deprecated use {@link #getDividerPage(int)}
+     */
+    @Deprecated
     public ItemDivider getDivider(int i) {
-        return (ItemDivider) mItems.get(i);
+        return new ItemDivider(getDividerPage(i));
+    }
+
+    /**
+     * @return the index of the page the item at {@code i} belongs to
+     */
+    public int getPageIndex(int i) {
+        return mItems.getPageIndex(i);
+    }
+
+    /**
+     * @return the position of the item at {@code i} within its page
+     */
+    public int getPositionInPage(int i) {
+        return mItems.getPositionInPage(i);
+    }
+
+    /**
+     * @return the adapter position of the item at {@code positionInPage} of the page at {@code pageIndex},
+     * or {@link RecyclerView#NO_POSITION} if the page isn't displayed
+     */
+    public int getPosition(int pageIndex, int positionInPage) {
+        int position = mItems.getPosition(pageIndex, positionInPage);
+        return position == -1 ? RecyclerView.NO_POSITION : position;
     }
 
 
@@ -126,6 +430,7 @@ public abstract class AutoPagerAdapter<P extends Page<E>, E> extends RecyclerVie
                         mCallbacks.onClickFooter(v);
                     }
                 });
+                setFullSpan(footer);
                 return new FooterViewHolder(footer);
             case END:
                 View ending = LayoutInflater.from(viewGroup.getContext()).inflate(mEnderRes, viewGroup, false);
@@ -135,6 +440,7 @@ public abstract class AutoPagerAdapter<P extends Page<E>, E> extends RecyclerVie
                         mCallbacks.onClickEnding(v);
                     }
                 });
+                setFullSpan(ending);
                 return new EndViewHolder(ending);
             case DIVIDER:
                 View loadMore = LayoutInflater.from(viewGroup.getContext()).inflate(mLoaderRes, viewGroup, false);
@@ -144,12 +450,73 @@ public abstract class AutoPagerAdapter<P extends Page<E>, E> extends RecyclerVie
                         mCallbacks.onClickLoadMore(v);
                     }
                 });
+                setFullSpan(loadMore);
                 return new PlaceHolderViewHolder(loadMore);
+            case ERROR:
+                View error = LayoutInflater.from(viewGroup.getContext()).inflate(mErrorRes, viewGroup, false);
+                error.setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        mCallbacks.onClickLoadMore(v);
+                    }
+                });
+                setFullSpan(error);
+                return new ErrorViewHolder(error);
+            case PLACEHOLDER:
+                View placeholder = LayoutInflater.from(viewGroup.getContext()).inflate(mPlaceholderRes, viewGroup, false);
+                return new PlaceholderItemViewHolder(placeholder);
             default:
+                if (mViewTypeRegistry != null && mViewTypeRegistry.isRegistered(viewType)) {
+                    return mViewTypeRegistry.createViewHolder(viewGroup, viewType);
+                }
                 return onCreateItemViewHolder(viewGroup, viewType);
         }
     }
 
+    @Override
+    public void onAttachedToRecyclerView(RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        if (mViewTypeRegistry != null) {
+            mViewTypeRegistry.applyPoolSizes(recyclerView.getRecycledViewPool());
+        }
+    }
+
+    /**
+     * Create a holder of each special item (footer, divider and ending view) while the main thread is idle,
+     * and put them into the RecycledViewPool of {@code recyclerView}, so they aren't inflated when they
+     * first scroll in, e.g. when the footer appears during a fling. One holder is created per idle time.
+     * Must be called on the main thread after this adapter is set to {@code recyclerView}.
+     */
+    public void preInflateSpecialViews(final RecyclerView recyclerView) {
+        final int[] types = {FOOTER, DIVIDER, END};
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            private int mNext;
+
+            @Override
+            public boolean queueIdle() {
+                if (recyclerView.getAdapter() != AutoPagerAdapter.this) {
+                    // the adapter has been replaced, the holders would never be used
+                    return false;
+                }
+                int type = types[mNext++];
+                if (DEBUG) Log.d(TAG, "preInflateSpecialViews() type " + type);
+                recyclerView.getRecycledViewPool().putRecycledView(createViewHolder(recyclerView, type));
+                return mNext < types.length;
+            }
+        });
+    }
+
+    /**
+     * Make a special item span the full width of a {@link StaggeredGridLayoutManager}, the full span in a
+     * {@link android.support.v7.widget.GridLayoutManager} is set by {@link AutoPagerManager}
+     */
+    private static void setFullSpan(View view) {
+        ViewGroup.LayoutParams layoutParams = view.getLayoutParams();
+        if (layoutParams instanceof StaggeredGridLayoutManager.LayoutParams) {
+            ((StaggeredGridLayoutManager.LayoutParams) layoutParams).setFullSpan(true);
+        }
+    }
+
     protected abstract void onBindItemViewHolder(RecyclerView.ViewHolder viewHolder, int position);
 
     @Override
@@ -167,8 +534,19 @@ public abstract class AutoPagerAdapter<P extends Page<E>, E> extends RecyclerVie
             ((PlaceHolderViewHolder) viewHolder).textView.setText("Click me to load more");
         } else if (viewHolder instanceof EndViewHolder) {
             if (DEBUG) Log.v("End", "" + position);
+        } else if (viewHolder instanceof ErrorViewHolder) {
+            if (DEBUG) Log.v("Error", "" + position);
+        } else if (viewHolder instanceof PlaceholderItemViewHolder) {
+            // the page of a placeholder is requested when it's about to be seen
+            if (mCallbacks instanceof SparseAdapterCallbacks) {
+                ((SparseAdapterCallbacks) mCallbacks).onBindPlaceholder(mItems.getPageIndex(position));
+            }
         } else {
-            onBindItemViewHolder(viewHolder, position);
+            if (mViewTypeRegistry != null && mViewTypeRegistry.isRegistered(viewHolder.getItemViewType())) {
+                mViewTypeRegistry.bindViewHolder(viewHolder, mItems.getItem(position));
+            } else {
+                onBindItemViewHolder(viewHolder, position);
+            }
         }
     }
 
@@ -178,21 +556,73 @@ public abstract class AutoPagerAdapter<P extends Page<E>, E> extends RecyclerVie
         return mItems.size();
     }
 
+    /**
+     * @return the index of the items displayed
+     */
+    ItemIndex<E> getItemIndex() {
+        return mItems;
+    }
+
     public void setInLastPage(boolean inLastPage) {
         this.mInLastPage = inLastPage;
     }
 
+    /**
+     * A divider as returned by {@link #getDivider(int)}
+     *
+     * @deprecated use {@link #getDividerPage(int)}
+     */
+    @Deprecated
+    public static class ItemDivider {
+        private final int mLastPage;
+
+        ItemDivider(int lastPage) {
+            mLastPage = lastPage;
+        }
+
+        /**
+         * @return the index of the page to load
+         */
+        public int getLastPage() {
+            return mLastPage;
+        }
+    }
+
     /**
      * The callback listeners for the special items
      */
     public interface AdapterCallbacks {
         void onClickFooter(View view);
 
+        /**
+         * Called when a divider or an error row is clicked, the page to load is {@link #getDividerPage(int)}
+         */
         void onClickLoadMore(View view);
 
         void onClickEnding(View view);
     }
 
+    /**
+     * The callback listeners which also receive the placeholders bound in the sparse mode
+     */
+    public interface SparseAdapterCallbacks extends AdapterCallbacks {
+        /**
+         * Called when a placeholder of the page at {@code page} is bound, during a layout pass
+         */
+        void onBindPlaceholder(int page);
+    }
+
+    /**
+     * The callback listeners which also learn when the items set by {@link #setItems(PageMap)} are displayed
+     */
+    public interface SwapAdapterCallbacks extends AdapterCallbacks {
+        /**
+         * Called on the main thread once the items of the latest {@link #setItems(PageMap)} are swapped in and
+         * notified, so {@link #getItemCount()} counts them. The items discarded for newer ones aren't reported.
+         */
+        void onItemsSwapped();
+    }
+
     private static class FooterViewHolder extends RecyclerView.ViewHolder {
         View linearLayout;
 
@@ -211,76 +641,26 @@ public abstract class AutoPagerAdapter<P extends Page<E>, E> extends RecyclerVie
         }
     }
 
-    private static class EndViewHolder extends RecyclerView.ViewHolder {
-        View linearLayout;
+    private static class PlaceholderItemViewHolder extends RecyclerView.ViewHolder {
 
-        public EndViewHolder(View itemView) {
+        public PlaceholderItemViewHolder(View itemView) {
             super(itemView);
-            linearLayout = itemView;
         }
     }
 
-    /**
-     * Created by Voyager on 2/14/2016.
-     */
-
-    static class ItemWrapper<E> {
-        private final E mItem;
-        private final int mType;
-
-        private ItemWrapper(E item) {
-            this.mItem = item;
-            this.mType = ITEM;
-        }
-
-        protected ItemWrapper(int type) {
-            this.mType = type;
-            this.mItem = null;
-        }
-
-        public static <E> ItemDivider<E> newDivider(int lastPage) {
-            return new ItemDivider<>(DIVIDER, lastPage);
-        }
-
-        public static <E> ItemWrapper<E> newEnd() {
-            return new ItemWrapper<>(END);
-        }
-
-        public static <E> ItemWrapper<E> newFooter() {
-            return new ItemWrapper<>(FOOTER);
-        }
+    private static class ErrorViewHolder extends RecyclerView.ViewHolder {
 
-        public static <E> ItemWrapper<E> newItem(@NonNull E item) {
-            return new ItemWrapper<>(item);
-        }
-
-        public int getType() {
-            return mType;
-        }
-
-        public E getItem() {
-            if (mItem == null) {
-                throw new NullPointerException("this wrapper doesn't wrap a item");
-            }
-            return mItem;
+        public ErrorViewHolder(View itemView) {
+            super(itemView);
         }
-
     }
 
-    /**
-     * Created by Voyager on 2/14/2016.
-     */
-    static class ItemDivider<E> extends ItemWrapper<E> {
-        private int mLastPage;
-
-        public ItemDivider(int type, int lastPage) {
-            super(type);
-            this.mLastPage = lastPage;
-        }
+    private static class EndViewHolder extends RecyclerView.ViewHolder {
+        View linearLayout;
 
-        public int getLastPage() {
-            return mLastPage;
+        public EndViewHolder(View itemView) {
+            super(itemView);
+            linearLayout = itemView;
         }
-
     }
 }
@@ -5,8 +5,6 @@ import android.support.v4.app.LoaderManager;
 import android.support.v4.content.Loader;
 import android.util.Log;
 
-import java.util.TreeMap;
-
 /**
  * A implementation of {@link BaseAutoPagerFragment} with the Loader pattern.
  * This class is very easy to use, you only need to implement {@link #onCreateLoader(int, Bundle)}
@@ -14,20 +12,85 @@ import java.util.TreeMap;
  */
 public abstract class AutoPagerFragment<P extends Page<E>, E>
         extends BaseAutoPagerFragment<P, E>
-        implements LoaderManager.LoaderCallbacks<TreeMap<Integer, P>> {
+        implements LoaderManager.LoaderCallbacks<PageMap<P>>, AutoPagerManager.BatchLoadPageMethod,
+        AutoPagerManager.CancelableLoadPageMethod {
 
     private static final int LOADER_ID = 1;
     private static final String TAG = "AutoPagerFragment";
+    private static final String KEY_PAGING_STATE = "auto_pager_paging_state";
 
     @Override
     public void loadPage(int index) {
-        if (AutoPagerManager.DEBUG) Log.d(TAG, "loadPage() called with " + "index = [" + index + "]");
+        if (PagingDebug.DEBUG) Log.d(TAG, "loadPage() called with " + "index = [" + index + "]");
         try {
-            getAutoPagerLoader().load(index);
+            AutoPagerLoader<P> loader = getAutoPagerLoader();
+            // null if the loader has been destroyed
+            if (loader != null) {
+                loader.load(index);
+                return;
+            }
         } catch (FragmentNotAttachedException e) {
-            if (AutoPagerManager.DEBUG)
+            if (PagingDebug.DEBUG)
                 Log.d(TAG, "loadPage " + index + " failed, unable to get lm, fragment not attached");
         }
+        onLoadDropped(index, 1);
+    }
+
+    @Override
+    public void loadPages(int firstPage, int count) {
+        if (PagingDebug.DEBUG)
+            Log.d(TAG, "loadPages() called with " + "firstPage = [" + firstPage + "], count = [" + count + "]");
+        try {
+            AutoPagerLoader<P> loader = getAutoPagerLoader();
+            if (loader != null) {
+                loader.loadPages(firstPage, count);
+                return;
+            }
+        } catch (FragmentNotAttachedException e) {
+            if (PagingDebug.DEBUG)
+                Log.d(TAG, "loadPages " + firstPage + " failed, unable to get lm, fragment not attached");
+        }
+        onLoadDropped(firstPage, count);
+    }
+
+    /**
+     * Let the manager request the pages again, which haven't started loading
+     */
+    private void onLoadDropped(int firstPage, int count) {
+        if (getAutoPagerManager() != null) {
+            getAutoPagerManager().onLoadDropped(firstPage, count);
+        }
+    }
+
+    @Override
+    public void cancelLoading() {
+        if (PagingDebug.DEBUG) Log.d(TAG, "cancelLoading() called");
+        try {
+            AutoPagerLoader<P> loader = getAutoPagerLoader();
+            // null if the loader has been destroyed, which has canceled loading already
+            if (loader != null) {
+                loader.cancelLoading();
+            }
+        } catch (FragmentNotAttachedException e) {
+            if (PagingDebug.DEBUG)
+                Log.d(TAG, "cancelLoading failed, unable to get lm, fragment not attached");
+        }
+    }
+
+    /**
+     * Fetch the first {@code pageCount} loaded pages again, keeping all pages displayed until the new ones
+     * replace them in place
+     *
+     * @see AutoPagerLoader#refresh(int)
+     */
+    public void refreshPages(int pageCount) {
+        if (PagingDebug.DEBUG) Log.d(TAG, "refreshPages() called with " + "pageCount = [" + pageCount + "]");
+        try {
+            getAutoPagerLoader().refresh(pageCount);
+        } catch (FragmentNotAttachedException e) {
+            if (PagingDebug.DEBUG)
+                Log.d(TAG, "refreshPages failed, unable to get lm, fragment not attached");
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -40,31 +103,91 @@ public abstract class AutoPagerFragment<P extends Page<E>, E>
         }
     }
 
+    /**
+     * Override this method to save the pages around the top of the screen in the instance state, so they are
+     * shown at once after the process is killed instead of being fetched again
+     *
+     * @return the serializer of pages, or null by default to save the page indices and the scroll position only
+     */
+    protected PageSerializer<P> getPageSerializer() {
+        return null;
+    }
+
+    /**
+     * The saved state of the whole activity is sent in one binder transaction of at most 1MB, shared with
+     * every other transaction in flight, so the budget should stay small.
+     *
+     * @return the max total size of the pages saved in the instance state, 16KB by default
+     */
+    protected int getMaxSavedPageBytes() {
+        return 16 * 1024;
+    }
+
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
 
         getLoaderManager().initLoader(LOADER_ID, null, this);
+        try {
+            getAutoPagerLoader().setOnPageFailedListener(new AutoPagerManager.OnPageFailedListener() {
+                @Override
+                public void onPageFailed(int page, Throwable cause, boolean willRetry) {
+                    if (getAutoPagerManager() != null) {
+                        getAutoPagerManager().onPageFailed(page, cause, willRetry);
+                    }
+                }
+            });
+        } catch (FragmentNotAttachedException e) {
+            if (PagingDebug.DEBUG) Log.d(TAG, "setOnPageFailedListener failed, unable to get lm, fragment not attached");
+        }
+        PagingState state = savedInstanceState == null ? null
+                : PagingState.fromBundle(savedInstanceState.getBundle(KEY_PAGING_STATE));
+        if (state != null) {
+            try {
+                // no effect if the loader has survived a configuration change with its pages, the saved pages
+                // are read on the worker thread of the loader
+                getAutoPagerLoader().restoreState(state, getPageSerializer());
+            } catch (FragmentNotAttachedException e) {
+                if (PagingDebug.DEBUG) Log.d(TAG, "restoreState failed, unable to get lm, fragment not attached");
+            }
+            getAutoPagerManager().restoreState(state);
+        }
+    }
+
+    @Override
+    public void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (getAutoPagerManager() != null) {
+            outState.putBundle(KEY_PAGING_STATE,
+                    getAutoPagerManager().saveState(getPageSerializer(), getMaxSavedPageBytes()).toBundle());
+        }
+    }
+
+    @Override
+    public void onDetach() {
+        // the pages being loaded will never be shown, unless the loader is kept for the recreated fragment
+        if (getActivity() != null && !getActivity().isChangingConfigurations() && getAutoPagerManager() != null) {
+            getAutoPagerManager().cancelLoading();
+        }
+        super.onDetach();
     }
 
     @Override
-    public abstract Loader<TreeMap<Integer, P>> onCreateLoader(int id, Bundle args);
+    public abstract Loader<PageMap<P>> onCreateLoader(int id, Bundle args);
 
     @Override
-    public void onLoadFinished(Loader<TreeMap<Integer, P>> loader, TreeMap<Integer, P> data) {
-        if (AutoPagerManager.DEBUG)
+    public void onLoadFinished(Loader<PageMap<P>> loader, PageMap<P> data) {
+        if (PagingDebug.DEBUG)
             Log.d(TAG, "onLoadFinished() called with " + "data.size() = [" + data.size() + "]");
-        ((AutoPagerLoader) loader).releaseLock();
-        if (data.size() == 0) return;
+        // the failed initial page is delivered as well, so it could be requested again
+        if (data.isEmpty() && data.getFailedPages().length == 0) return;
         setData(data);
-        // why the lock has been released when loading more?
-        // maybe it's because that loader won't call load method when restoring data
     }
 
     @Override
-    public void onLoaderReset(Loader<TreeMap<Integer, P>> loader) {
-        if (AutoPagerManager.DEBUG) Log.d(TAG, "onLoaderReset() called with " + "loader = [" + loader + "]");
-        setData(new TreeMap<Integer, P>());
+    public void onLoaderReset(Loader<PageMap<P>> loader) {
+        if (PagingDebug.DEBUG) Log.d(TAG, "onLoaderReset() called with " + "loader = [" + loader + "]");
+        setData(PageMap.<P>empty());
     }
 
     public static class FragmentNotAttachedException extends Exception {
@@ -1,38 +1,106 @@
 package tower.sphia.auto_pager_recycler.lib;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.util.Log;
 
-import java.util.TreeMap;
+import java.util.List;
 
 /**
  * A loader which loads the target page and maintains all loaded data.
  */
-public abstract class AutoPagerLoader<P extends Page<?>> extends AsyncTaskLoaderImpl<TreeMap<Integer, P>> {
+public abstract class AutoPagerLoader<P extends Page<?>> extends AsyncTaskLoaderImpl<PageMap<P>> {
     private static final String TAG = "AutoPagerLoader";
-    private final Lock mLock = Lock.locked();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * Maintains all pages merged so far. They are kept apart from {@link #getData()} because a load may be
+     * canceled before its result is delivered, while the pages it merged must not be lost.
+     */
+    private final PagingEngine<P> mEngine;
+    /**
+     * The token of the page being loaded by {@link #newPage(int)} on the current thread
+     */
+    private final ThreadLocal<CancellationToken> mToken = new ThreadLocal<>();
+    /**
+     * The state to be restored in the next load, or null
+     */
+    private PagingState mPendingState;
+    private PageSerializer<P> mPendingSerializer;
+    private AutoPagerManager.OnPageFailedListener mOnPageFailedListener;
 
+    public AutoPagerLoader(Context ctx) {
+        super(ctx);
+        mEngine = new PagingEngine<>(new PageFetcher.Source<P>() {
+            @Override
+            public P newPage(int index, CancellationToken token) throws DataNotLoadedException {
+                mToken.set(token);
+                try {
+                    return AutoPagerLoader.this.newPage(index);
+                } finally {
+                    mToken.remove();
+                }
+            }
+        }, new PageFetcher.Listener() {
+            @Override
+            public void onPageFetched(int index) {
+                // onContentChanged() must be called on the main thread
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        onContentChanged();
+                    }
+                });
+            }
+        }, null);
+    }
 
     /**
-     * tell the loader to target page to load
-     * the loaded target page will be stored in the {@link TreeMap} container
+     * Release the resources (bitmaps, cursors etc.) held by pages that are no longer used, which are
+     * the evicted pages when {@link #setMaxPages(int)} is set, and all pages when the loader is reset.
      * <p>
-     * NOTE: the default index of first page is 1, if your page begins with 0, just make a offset in {@link #newPage(int)}
+     * NOTE: pages are shared between the results of successive loads, so this method is NOT called
+     * with the old result when a new result is delivered.
      */
-    private int mTargetPage = 1;
+    @Override
+    protected void releaseResources(PageMap<P> data) {
+    }
 
-    public AutoPagerLoader(Context ctx) {
-        super(ctx);
+    @Override
+    protected void onDataReplaced(PageMap<P> oldData, PageMap<P> newData) {
+        // the old data shares its pages with the new one, only the evicted pages could be released
+        PageMap<P> evicted = mEngine.takeEvicted();
+        if (!evicted.isEmpty()) {
+            releaseResources(evicted);
+        }
+    }
+
+    @Override
+    public void deliverResult(PageMap<P> data) {
+        super.deliverResult(data);
+        // the failures are reported after the pages marking the pages given up as failed, or kept until started
+        if (!isStarted()) {
+            return;
+        }
+        List<PagingEngine.Failure> failures = mEngine.takeFailures();
+        if (mOnPageFailedListener != null) {
+            for (PagingEngine.Failure failure : failures) {
+                mOnPageFailedListener.onPageFailed(failure.page, failure.cause, failure.willRetry);
+            }
+        }
     }
 
     @Override
-    protected void releaseResources(TreeMap<Integer, P> data) {
+    public void onCanceled(PageMap<P> data) {
+        // the pages of a canceled result are still kept by the loader, don't release them
     }
 
     /**
      * Implement this method to get a page object of a certain index (from network, database etc.)
      * The index of first page should be moved to 1
+     * <p>
+     * NOTE: with a prefetch window larger than 1, this method is called concurrently for different pages.
      *
      * @param index the index to be loaded
      * @return the object instance for the index
@@ -40,109 +108,193 @@ public abstract class AutoPagerLoader<P extends Page<?>> extends AsyncTaskLoader
     @NonNull
     protected abstract P newPage(int index) throws DataNotLoadedException;
 
-    @Override
-    public synchronized TreeMap<Integer, P> loadInBackground() {
-        // This method is called on a background thread and should generate a
-        // new set of pages to be delivered back to the client.
-        if (AutoPagerManager.DEBUG) Log.d(TAG, "loadInBackground called with mTargetPage=" + mTargetPage);
-
-        if (!mLock.check()) {
-            throw new IllegalStateException(mLock.TAG + " is unlocked!");
-//            mLock.lock();
+    /**
+     * Call it from {@link #newPage(int)} to stop loading the page as soon as it will never be shown, e.g. the
+     * first page is reloaded or the fragment is detached, see {@link CancellationToken}.
+     *
+     * @return the token of the page being loaded on the calling thread, canceled when it's no longer needed
+     * @throws IllegalStateException if it's not called from {@link #newPage(int)}
+     */
+    protected CancellationToken getCancellationToken() {
+        CancellationToken token = mToken.get();
+        if (token == null) {
+            throw new IllegalStateException("getCancellationToken() must be called from newPage(int)");
         }
+        return token;
+    }
 
-        // MUST create new TreeMap here, cuz LoaderManager will use `oldData!=newReturned`
-        // to decide whether to call `onLoadFinished()` or not.
-        TreeMap<Integer, P> pages = new TreeMap<>();
-
-        TreeMap<Integer, P> oldData = getData();
-        if (oldData != null) {
-            pages.putAll(oldData);
-        }
+    /**
+     * Call it from {@link #newPage(int)} with the items parsed so far, e.g. every 50 items of a large page, so the
+     * first items are shown before the whole page is parsed. Each partial page is a page of the same index whose
+     * items start with all items of the partial pages published before, and the page returned by
+     * {@link #newPage(int)} completes it. It's shown only when it's the next page after the last loaded page,
+     * otherwise the page is shown when it's fully loaded. A partial page is neither cached nor kept if the
+     * page fails.
+     */
+    protected void publishPartialPage(P page) {
+        mEngine.publish(page);
+    }
 
-        try {
-            P page = newPage(mTargetPage);
+    /**
+     * Enable caching pages. A cached page is delivered at once instead of calling {@link #newPage(int)},
+     * and if it's stale, it's fetched again in background and the new page replaces it when fetched.
+     * Reloading a page which has been loaded, e.g. refreshing the first page, always calls {@link #newPage(int)}.
+     *
+     * @param pageCache the cache, or null to disable caching
+     */
+    public void setPageCache(PageCache<P> pageCache) {
+        mEngine.setPageCache(pageCache);
+    }
 
-            if (mTargetPage == 1 && pages.containsKey(mTargetPage)) {
-                pages.clear();
-                if (AutoPagerManager.DEBUG) Log.d(TAG, "RELOADING");
-            }
-            pages.put(page.index(), page);
-            if (AutoPagerManager.DEBUG) Log.d(TAG, "mTargetPage " + mTargetPage + " loaded");
-        } catch (DataNotLoadedException e) {
-            if (AutoPagerManager.DEBUG) Log.e(TAG, "loadInBackground Page " + mTargetPage + "not found");
-        }
-        if (AutoPagerManager.DEBUG) Log.d(TAG, "loadInBackground() returned pages.size() " + pages.size());
-        return pages;
+    /**
+     * Open at the page at {@code page} instead of page 1, e.g. for a deep link into a thread. The pages
+     * before it are loaded as the user scrolls up, see {@link AutoPagerManager}.
+     * It has effect only before the first page is requested.
+     *
+     * @param page the first page to load, 1 by default
+     */
+    public void setInitialPage(int page) {
+        mEngine.setInitialPage(page);
     }
 
-    public synchronized void load(int page) {
-        if (AutoPagerManager.DEBUG) Log.d(TAG, "load() called with " + "page = [" + page + "]");
-        if (mLock.check()) {
-            if (AutoPagerManager.DEBUG) mLock.log();
-        } else {
-            mLock.lock();
-            setTargetPage(page);
-            onContentChanged();
-        }
+    /**
+     * @param metrics the listener of the loading timings of every page, or null to measure nothing
+     */
+    public void setPagingMetrics(PagingMetrics metrics) {
+        mEngine.setMetrics(metrics);
     }
 
-    private void setTargetPage(int page) {
-        if (AutoPagerManager.DEBUG) {
-            Log.d(TAG, "*******************************");
-            Log.d(TAG, "setTargetPage() called with " + "page = [" + page + "]");
-        }
-        mTargetPage = page;
+    /**
+     * Retry the pages which failed to load with backoff, and stop requesting pages while the source keeps failing.
+     * The pages given up are reported by {@link PageMap#getFailedPages()} and shown as error rows by
+     * {@link AutoPagerAdapter}, which load the page again when tapped.
+     *
+     * @param retryPolicy the policy, or null by default to give up failed pages at once
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        mEngine.setRetryPolicy(retryPolicy);
     }
 
-    public synchronized void releaseLock() {
-        if (mLock.check()) {
-            mLock.release();
-        }
+    /**
+     * @param listener called on the main thread after the result reporting a failure is delivered, e.g. to
+     *                 {@link AutoPagerManager#onPageFailed(int, Throwable, boolean)}, or null
+     */
+    public void setOnPageFailedListener(AutoPagerManager.OnPageFailedListener listener) {
+        mOnPageFailedListener = listener;
     }
 
-    private static class Lock {
-        public final String TAG = "Lock#" + this.hashCode();
-        private boolean locked = false;
+    /**
+     * Set the number of pages fetched concurrently when a page is requested, e.g. with a window of 3,
+     * requesting page N fetches page N, N+1 and N+2 at the same time. The fetched pages are still
+     * delivered in order.
+     *
+     * @param prefetchWindow the number of pages, 1 by default
+     */
+    public void setPrefetchWindow(int prefetchWindow) {
+        mEngine.setPrefetchWindow(prefetchWindow);
+    }
 
-        private Lock() {
+    /**
+     * Enable the windowed mode: keep at most {@code maxPages} pages around the latest requested page,
+     * and evict the farthest ones. The evicted pages are passed to {@link #releaseResources(PageMap)}
+     * after the new result has been delivered, and shown as dividers by {@link AutoPagerAdapter}, which could
+     * be loaded again on scroll with {@link AutoPagerManager#setLoadDividersOnScroll(boolean)}.
+     *
+     * @param maxPages the max number of pages, 0 by default for no limit
+     */
+    public void setMaxPages(int maxPages) {
+        mEngine.setMaxPages(maxPages);
+    }
 
+    /**
+     * Restore the pages saved by {@link AutoPagerManager#saveState(PageSerializer, int)} instead of loading the
+     * initial page, then load the anchor page if it isn't saved. It has no effect if the loader has loaded
+     * pages, e.g. it has survived a configuration change. Call it on the main thread right after the loader is
+     * initialized, and pass the state to {@link AutoPagerManager#restoreState(PagingState)} as well.
+     * <p>
+     * The pages are read from the state in the next load on the worker thread of the loader. The restored pages
+     * aren't fetched again, refresh them with {@link #refresh(int)} if they may be outdated.
+     *
+     * @param serializer the serializer the state is saved with, or null if it's saved without pages
+     */
+    public void restoreState(PagingState state, PageSerializer<P> serializer) {
+        if (!mEngine.getPages().isEmpty()) {
+            return;
         }
-
-        public static Lock unlocked() {
-            return new Lock();
+        synchronized (this) {
+            mPendingState = state;
+            mPendingSerializer = serializer;
         }
+        onContentChanged();
+    }
 
-        public static Lock locked() {
-            Lock lock = new Lock();
-            lock.lock();
-            return lock;
+    @Override
+    public PageMap<P> loadInBackground() {
+        // This method is called on a background thread and should merge the fetched pages into
+        // a new set of pages to be delivered back to the client.
+        if (PagingDebug.DEBUG) Log.d(TAG, "loadInBackground called");
+        PagingState state;
+        PageSerializer<P> serializer;
+        synchronized (this) {
+            state = mPendingState;
+            serializer = mPendingSerializer;
+            mPendingState = null;
+            mPendingSerializer = null;
         }
-
-        public synchronized boolean check() {
-            return locked;
+        if (state != null) {
+            List<P> pages = state.readPages(serializer);
+            mEngine.restore(pages, state.getAnchorPage(), state.getLastPage());
         }
+        mEngine.loadIfEmpty();
+        // MUST return a new PageMap here, cuz LoaderManager will use `oldData!=newReturned`
+        // to decide whether to call `onLoadFinished()` or not.
+        PageMap<P> pages = mEngine.merge();
+        if (PagingDebug.DEBUG) Log.d(TAG, "loadInBackground() returned pages.size() " + pages.size());
+        return pages;
+    }
 
-        public void log() {
-            Log.d(TAG, "access refused, lock being locked, ");
-        }
+    /**
+     * Start loading the page at {@code page} and the following pages in the prefetch window.
+     * Requesting a page being loaded has no effect, and reloading the first page cancels loading
+     * all other pages.
+     */
+    public void load(int page) {
+        mEngine.load(page);
+    }
 
-        public synchronized void release() {
-            if (!locked) {
-                throw new IllegalStateException(TAG + " has been released");
-            } else {
-                if (AutoPagerManager.DEBUG) Log.d(TAG, "lock released");
-                locked = false;
-            }
-        }
+    /**
+     * Start loading {@code count} pages from {@code firstPage} on, which are delivered at once when all of
+     * them have finished loading, e.g. to fill the screen with a single update
+     */
+    public void loadPages(int firstPage, int count) {
+        mEngine.loadPages(firstPage, count);
+    }
 
-        public synchronized void lock() {
-            if (locked) {
-                throw new IllegalStateException(TAG + " has been locked");
-            } else {
-                if (AutoPagerManager.DEBUG) Log.d(TAG, "lock locked");
-                locked = true;
-            }
+    /**
+     * Fetch the first {@code pageCount} loaded pages again in background, each replacing the old page in place
+     * when fetched. Unlike reloading the first page with {@link #load(int)}, all other pages are kept.
+     *
+     * @param pageCount the number of pages to refresh from the first loaded page on
+     */
+    public void refresh(int pageCount) {
+        mEngine.refresh(pageCount);
+    }
+
+    /**
+     * Cancel loading all pages while the loaded pages are kept, e.g. when the fragment is detached, so the
+     * tokens returned by {@link #getCancellationToken()} are canceled. The pages still needed are
+     * requested again by {@link AutoPagerManager}.
+     */
+    public void cancelLoading() {
+        mEngine.cancel();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        PageMap<P> evicted = mEngine.reset();
+        if (!evicted.isEmpty()) {
+            releaseResources(evicted);
         }
     }
 }
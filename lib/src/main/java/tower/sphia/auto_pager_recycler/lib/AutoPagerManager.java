@@ -4,29 +4,43 @@ import android.animation.ObjectAnimator;
 import android.animation.ValueAnimator;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
+import android.support.v7.widget.GridLayoutManager;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.StaggeredGridLayoutManager;
 import android.util.Log;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.TextView;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.TreeMap;
+import java.util.SortedMap;
 
 /**
  * This class manages the RecyclerView and its Adapter to make them cooperate for the auto-pager feature,
  * setAdapter() must be called.
  * <p/>
  * Using composition and delegation to support any implementation or wrapper of a {@link RecyclerView}
+ * <p/>
+ * Any LayoutManager could be used: {@link LinearLayoutManager}, {@link GridLayoutManager} and
+ * {@link StaggeredGridLayoutManager} are supported with their own visible positions, others by the positions
+ * of their children. With several spans, the zone size is counted in rows, and the special items of
+ * {@link AutoPagerAdapter} span the full width.
  */
-public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.AdapterCallbacks {
+public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.SparseAdapterCallbacks,
+        AutoPagerAdapter.SwapAdapterCallbacks {
     /**
-     * Next page loading is started when the number of remaining invisible items equals AUTO_PAGER_ZONE_SIZE
+     * Next page loading is started when the number of remaining invisible rows equals AUTO_PAGER_ZONE_SIZE,
+     * this is the default zone size of the managers created afterwards, see {@link StaticPrefetchPolicy}
      */
     static int AUTO_PAGER_ZONE_SIZE = 3;
-    static boolean DEBUG = false;
+    /**
+     * The max number of pages requested at once to fill the screen
+     */
+    private static final int MAX_FILL_PAGES = 10;
     private final String TAG = "AutoPagerManager#" + this.hashCode();
     /**
      * A flag whether next page loading has been started
@@ -43,7 +57,7 @@ public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.
     /**
      * The LayoutManager for RecyclerView, used to get display information
      */
-    private LinearLayoutManager mLayoutManager;
+    private RecyclerView.LayoutManager mLayoutManager;
     /**
      * A handler to post {@code mAdapter.notifyDataSetChanged()} into message queue
      */
@@ -60,9 +74,80 @@ public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.
      * The current page index
      */
     private int mIndex;
+    /**
+     * The pages set last, or null
+     */
+    private PageMap<P> mPages;
+    /**
+     * The index of the first loaded page, or 0
+     */
+    private int mFirstIndex;
+    /**
+     * A flag whether loading the page before the first page has been started
+     */
+    private boolean mPrevPagerTriggered;
+    /**
+     * The page, the position in page and the offset from the top of the item kept in place when pages
+     * are prepended or a state is restored, mAnchorPage is 0 if there is none
+     */
+    private int mAnchorPage;
+    private int mAnchorPositionInPage;
+    private int mAnchorOffset;
+    /**
+     * Keeps the anchor in place on the changes of {@link #mAdapter}, registered on the adapter set last only
+     */
+    private final AnchorObserver mAnchorObserver = new AnchorObserver();
     private List<OnDataAttachedListener> mOnDataAttachedListeners = new ArrayList<>();
+    private List<OnPageFailedListener> mOnPageFailedListeners = new ArrayList<>();
+    /**
+     * Whether any page has been loaded, rather than only failed, since the items were last swapped in
+     */
+    private boolean mPagesChanged;
     private LoadPageMethod mLoadPageMethod;
+    /**
+     * Coalesces the page requests before passing them on to {@link #loadPage(int)}
+     */
+    private final PageRequestCoordinator mRequestCoordinator;
     private EndViewManager mEndViewManager;
+    /**
+     * The policy deciding when to load the next page on scroll
+     */
+    private PrefetchPolicy mPrefetchPolicy;
+    /**
+     * The time when the page loading triggered on scroll started, or 0
+     */
+    private long mPagerTriggeredTime;
+    /**
+     * Whether the page of a divider is loaded when the divider scrolls into the screen
+     */
+    private boolean mLoadDividersOnScroll;
+    /**
+     * The listener of the displaying timings, or null
+     */
+    private PagingMetrics mPagingMetrics;
+    /**
+     * The time from which the time to the first items is measured, or 0 when it's been reported
+     */
+    private long mFirstItemsStartTime;
+    /**
+     * The time when the footer scrolled into the screen while a page requested on scroll is loading, or 0
+     */
+    private long mFooterShownTime;
+    /**
+     * Whether the screen is checked again after the next layout, as the items haven't been laid out yet
+     */
+    private boolean mFillCheckOnLayout;
+    private final ViewTreeObserver.OnGlobalLayoutListener mFillCheckLayoutListener =
+            new ViewTreeObserver.OnGlobalLayoutListener() {
+                @SuppressWarnings("deprecation")
+                @Override
+                public void onGlobalLayout() {
+                    // removeOnGlobalLayoutListener() is API 16
+                    mRecyclerView.getViewTreeObserver().removeGlobalOnLayoutListener(this);
+                    mFillCheckOnLayout = false;
+                    checkIsScreenFilled();
+                }
+            };
 
     /**
      * The constructor.
@@ -74,14 +159,31 @@ public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.
         mRecyclerView = recyclerView;
         mPagerTriggered = false;
         mHandler = new Handler(Looper.getMainLooper());
-        mLayoutManager = ((LinearLayoutManager) mRecyclerView.getLayoutManager());
+        mLayoutManager = mRecyclerView.getLayoutManager();
         mLoadPageMethod = loadPageMethod;
+        mRequestCoordinator = new PageRequestCoordinator(new BatchLoadPageMethod() {
+            @Override
+            public void loadPage(int page) {
+                AutoPagerManager.this.loadPage(page);
+            }
+
+            @Override
+            public void loadPages(int firstPage, int count) {
+                AutoPagerManager.this.loadPages(firstPage, count);
+            }
+        });
+        mPrefetchPolicy = new StaticPrefetchPolicy(AUTO_PAGER_ZONE_SIZE);
+        mFirstItemsStartTime = SystemClock.uptimeMillis();
     }
 
     public static void enalbleDebug(boolean debug) {
-        AutoPagerManager.DEBUG = debug;
+        PagingDebug.DEBUG = debug;
     }
 
+    /**
+     * @param autoPagerZoneSize the default zone size of the managers created afterwards,
+     *                          use {@link #setPrefetchPolicy(PrefetchPolicy)} to change it for a single manager
+     */
     public static void setAutoPagerZoneSize(int autoPagerZoneSize) {
         if (autoPagerZoneSize <= 0) {
             throw new IllegalArgumentException();
@@ -89,6 +191,39 @@ public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.
         AUTO_PAGER_ZONE_SIZE = autoPagerZoneSize;
     }
 
+    public PrefetchPolicy getPrefetchPolicy() {
+        return mPrefetchPolicy;
+    }
+
+    /**
+     * @param prefetchPolicy the policy deciding when to load the next page on scroll for this manager,
+     *                       e.g. an {@link AdaptivePrefetchPolicy}
+     */
+    public void setPrefetchPolicy(@NonNull PrefetchPolicy prefetchPolicy) {
+        mPrefetchPolicy = prefetchPolicy;
+    }
+
+    /**
+     * @param loadDividersOnScroll if true, the missing pages represented by a divider are loaded when
+     *                             the divider scrolls into the screen instead of on click, which is
+     *                             useful with the windowed mode of {@link AutoPagerLoader#setMaxPages(int)}
+     */
+    public void setLoadDividersOnScroll(boolean loadDividersOnScroll) {
+        mLoadDividersOnScroll = loadDividersOnScroll;
+    }
+
+    /**
+     * @param metrics the listener of the time to the first items and the time the footer is visible
+     *                while the next page is loading, or null to measure nothing
+     */
+    public void setPagingMetrics(PagingMetrics metrics) {
+        mPagingMetrics = metrics;
+        mRequestCoordinator.setMetrics(metrics);
+        if (metrics != null && mLastPageIndex == -1) {
+            mFirstItemsStartTime = SystemClock.uptimeMillis();
+        }
+    }
+
     public AutoPagerAdapter<P, E> getAdapter() {
         return mAdapter;
     }
@@ -97,9 +232,18 @@ public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.
      * @param adapter the implementation of {@link AutoPagerAdapter}
      */
     public void setAdapter(AutoPagerAdapter<P, E> adapter) {
+        if (mAdapter != null) {
+            mAdapter.unregisterAdapterDataObserver(mAnchorObserver);
+        }
         mAdapter = adapter;
         mAdapter.setCallbacks(this);
+        mAdapter.registerAdapterDataObserver(mAnchorObserver);
+        if (mLayoutManager instanceof GridLayoutManager) {
+            GridLayoutManager gridLayoutManager = (GridLayoutManager) mLayoutManager;
+            gridLayoutManager.setSpanSizeLookup(new FullSpanSizeLookup(gridLayoutManager, adapter));
+        }
         mRecyclerView.setAdapter(adapter);
+        mAdapter.preInflateSpecialViews(mRecyclerView);
     }
 
     @Override
@@ -110,26 +254,102 @@ public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.
     @Override
     public void onClickLoadMore(View view) {
         int childLayoutPosition = getRecyclerView().getChildLayoutPosition(view);
-        int page = mAdapter.getDivider(childLayoutPosition).getLastPage();
-        loadPage(page);
+        int page = mAdapter.getDividerPage(childLayoutPosition);
+        requestPage(page, PageRequestCoordinator.PRIORITY_VISIBLE);
     }
 
     @Override
     public void onClickEnding(View view) {
 //        getRecyclerView().scrollToPosition(0);
-        if (DEBUG) Log.d(TAG, "onClickEnding() called " + "reloading the last page");
+        if (PagingDebug.DEBUG) Log.d(TAG, "onClickEnding() called " + "reloading the last page");
         if (mEndViewManager == null) {
             View refresh = view.findViewById(R.id.ll_end);
             mEndViewManager = new EndViewManager(refresh);
         }
         mEndViewManager.startAnimator();
-        loadPage(mLastPageIndex);
+        requestPage(mLastPageIndex, PageRequestCoordinator.PRIORITY_VISIBLE);
+    }
+
+    @Override
+    public void onBindPlaceholder(int page) {
+        requestPage(page, PageRequestCoordinator.PRIORITY_VISIBLE);
+    }
+
+    /**
+     * Scroll to the first item of the page at {@code page}. In the sparse mode of
+     * {@link AutoPagerAdapter#setSparsePageSize(int)}, its placeholders are scrolled to and the page is loaded
+     * without loading the pages in between. Otherwise, if the page isn't loaded, it's requested.
+     */
+    public void scrollToPage(int page) {
+        int position = mAdapter.getPosition(page, 0);
+        if (position == RecyclerView.NO_POSITION) {
+            requestPage(page, PageRequestCoordinator.PRIORITY_VISIBLE);
+        } else {
+            scrollToPositionWithOffset(position, 0);
+        }
+    }
+
+    /**
+     * Save the loaded pages and the item at the top of the screen, to be restored after the process is killed
+     *
+     * @param serializer      the serializer of the pages closest to the top item, which are restored without
+     *                        being fetched, or null to save the page indices only
+     * @param maxPayloadBytes the max total size of the serialized pages, keep it well below the limit of
+     *                        a saved instance state
+     * @see AutoPagerLoader#restoreState(PagingState, PageSerializer)
+     */
+    public PagingState saveState(PageSerializer<P> serializer, int maxPayloadBytes) {
+        PageMap<P> pages = mPages == null ? PageMap.<P>empty() : mPages;
+        View child = findAnchorChild();
+        if (child == null) {
+            return PagingState.save(pages, 0, 0, 0, serializer, maxPayloadBytes);
+        }
+        int position = mRecyclerView.getChildLayoutPosition(child);
+        return PagingState.save(pages, mAdapter.getPageIndex(position), mAdapter.getPositionInPage(position),
+                mLayoutManager.getDecoratedTop(child) - mRecyclerView.getPaddingTop(), serializer, maxPayloadBytes);
+    }
+
+    /**
+     * Scroll to the item saved at the top of the screen once its page is set, either restored by
+     * {@link AutoPagerLoader#restoreState(PagingState, PageSerializer)} or kept by a loader which has survived
+     * a configuration change
+     */
+    public void restoreState(PagingState state) {
+        if (state.getAnchorPage() == 0) {
+            return;
+        }
+        mAnchorPage = state.getAnchorPage();
+        mAnchorPositionInPage = state.getAnchorPositionInPage();
+        mAnchorOffset = state.getAnchorOffset();
+        if (PagingDebug.DEBUG) Log.d(TAG, "restoreState() page " + mAnchorPage + " position " + mAnchorPositionInPage);
     }
 
     public void addOnDataAttachedListener(OnDataAttachedListener onDataAttachedListener) {
         mOnDataAttachedListeners.add(onDataAttachedListener);
     }
 
+    /**
+     * @param onPageFailedListener called when a page has failed to load, see {@link #onPageFailed}
+     */
+    public void addOnPageFailedListener(OnPageFailedListener onPageFailedListener) {
+        mOnPageFailedListeners.add(onPageFailedListener);
+    }
+
+    /**
+     * Called on the main thread when a page requested from the {@link LoadPageMethod} has failed to load, e.g.
+     * from the {@link OnPageFailedListener} of {@link AutoPagerLoader} or {@link AutoPagerSource}, then passed on
+     * to the listeners added by {@link #addOnPageFailedListener(OnPageFailedListener)}. A page given up is also
+     * delivered to {@link #setData(PageMap)} as failed, which shows its error row.
+     *
+     * @see OnPageFailedListener#onPageFailed(int, Throwable, boolean)
+     */
+    public void onPageFailed(int page, Throwable cause, boolean willRetry) {
+        if (PagingDebug.DEBUG) Log.d(TAG, "onPageFailed() page " + page + " willRetry " + willRetry);
+        for (OnPageFailedListener onPageFailedListener : mOnPageFailedListeners) {
+            onPageFailedListener.onPageFailed(page, cause, willRetry);
+        }
+    }
+
     public E findItemByView(View view) {
         int childLayoutPosition = getRecyclerView().getChildLayoutPosition(view);
         return getAdapter().getItem(childLayoutPosition);
@@ -140,17 +360,30 @@ public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.
     }
 
     /**
-     * Delegate the {@link AutoPagerAdapter#setItems(TreeMap)} method to
+     * @param pages the pages keyed by their indices, e.g. a {@code TreeMap<Integer, P>} of existing code
+     * @see #setData(PageMap)
+     */
+    public void setData(@NonNull SortedMap<Integer, ? extends P> pages) {
+        setData(PageMap.fromMap(pages));
+    }
+
+    /**
+     * Delegate the {@link AutoPagerAdapter#setItems(PageMap)} method to
      * retrieve data info and/or do some initialization work
      *
      * @param pages the data container
      */
-    public void setData(@NonNull TreeMap<Integer, P> pages) {
-        if (DEBUG) Log.d(TAG, "setData() called with " + "pages.size() = [" + pages.size() + "]");
+    public void setData(@NonNull PageMap<P> pages) {
+        if (PagingDebug.DEBUG) Log.d(TAG, "setData() called with " + "pages.size() = [" + pages.size() + "]");
         int size = pages.size();
+        // the delivered pages could be requested again, e.g. to retry a failed page
+        mRequestCoordinator.onPagesDelivered(pages);
+        if (!pages.hasSamePages(mPages)) {
+            mPagesChanged = true;
+        }
         // update mIndex
         if (size != 0) {
-            P last = pages.lastEntry().getValue();
+            P last = pages.last();
             mIndex = last.index();
             // check if first page have been loaded, if not, do some initialization work
             if (mLastPageIndex == -1) {
@@ -159,57 +392,276 @@ public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.
                 }
             }
             mLastPageIndex = last.last();
+            int firstIndex = pages.first().index();
+            if (mFirstIndex != 0 && firstIndex < mFirstIndex) {
+                // pages are prepended, keep the visible items in place
+                saveAnchor();
+            }
+            mFirstIndex = firstIndex;
             mAdapter.setInLastPage(inLastPage());
+            // the triggers are reset and the screen is checked in onItemsSwapped(), once the adapter shows the
+            // new items
             mAdapter.setItems(pages);
             if (mEndViewManager != null) {
                 mEndViewManager.stopAnimator();
             }
-            // check if scroll has been enabled
-            if (mOnScrollListener != null) { // FIXME: 2/5/2016 it's null after vp destroyed the frag
-                // if enabled, just change the flag
-                mPagerTriggered = false;
-            } else {
-                // if not, load more data until screen is filled
-                checkIsScreenFilled();
+        } else if (pages.getFailedPages().length != 0) {
+            // the initial page has failed, show the error row to load it again
+            mAdapter.setItems(pages);
+        }
+        mPages = pages;
+    }
+
+    /**
+     * Called when the items of the pages set last are swapped in, so the scroll events and the check of the
+     * screen count the new items rather than the ones displayed before
+     */
+    @Override
+    public void onItemsSwapped() {
+        if (mPages == null || mPages.isEmpty()) {
+            return;
+        }
+        if (mFirstItemsStartTime != 0) {
+            if (mPagingMetrics != null) {
+                mPagingMetrics.onFirstItems(SystemClock.uptimeMillis() - mFirstItemsStartTime);
+            }
+            mFirstItemsStartTime = 0;
+        }
+        mPrevPagerTriggered = false;
+        boolean loaded = mPagesChanged;
+        mPagesChanged = false;
+        // check if scroll has been enabled
+        if (mOnScrollListener != null) { // FIXME: 2/5/2016 it's null after vp destroyed the frag
+            // if enabled, just change the flag
+            // the footer stays shown while only failures are delivered, e.g. a page being retried
+            if (loaded) {
+                if (mPagingMetrics != null && mFooterShownTime != 0) {
+                    mPagingMetrics.onFooterHidden(mIndex, SystemClock.uptimeMillis() - mFooterShownTime);
+                }
+                // the latency of a page being streamed is known once its last items are merged
+                if (mPagerTriggeredTime != 0 && !mPages.isPartial(mIndex)) {
+                    mPrefetchPolicy.onPageLoaded(SystemClock.uptimeMillis() - mPagerTriggeredTime);
+                    mPagerTriggeredTime = 0;
+                }
+                mFooterShownTime = 0;
             }
+            mPagerTriggered = false;
+        } else {
+            // if not, load more data until screen is filled
+            checkIsScreenFilled();
         }
     }
 
+    /**
+     * @return true if the page at {@code page} has been given up after failing to load, which is loaded
+     * again only when the user taps its error row
+     */
+    private boolean isFailed(int page) {
+        return mPages != null && mPages.isFailed(page);
+    }
+
     /**
      * Called when the list items are not enough to fill the screen.
-     * The task must be posted to the message queue of UI thread to avoid a recursive invoking.
+     * The task must be posted to the message queue of UI thread to avoid a recursive invoking, and so it runs
+     * after the layout of the swapped items.
      */
     private void checkIsScreenFilled() {
-        if (DEBUG) Log.d(TAG, "checkIsScreenFilled() called");
+        if (PagingDebug.DEBUG) Log.d(TAG, "checkIsScreenFilled() called");
         Runnable runnable = new Runnable() {
             @Override
             public void run() {
-                if (DEBUG) Log.d(TAG, "execute runnable#" + hashCode());
+                if (PagingDebug.DEBUG) Log.d(TAG, "execute runnable#" + hashCode());
                 // check if items have filled the screen height, if not, continue loading
                 int visibleItemCount = mLayoutManager.getChildCount();
                 int totalItemCount = mLayoutManager.getItemCount();
-                if (DEBUG) Log.d(TAG, "visibleItemCount = " + visibleItemCount);
-                if (DEBUG) Log.d(TAG, "totalItemCount = " + totalItemCount);
-
-                if (visibleItemCount != 0 && totalItemCount > visibleItemCount + 3) {
+                if (PagingDebug.DEBUG) Log.d(TAG, "visibleItemCount = " + visibleItemCount);
+                if (PagingDebug.DEBUG) Log.d(TAG, "totalItemCount = " + totalItemCount);
+
+                if (visibleItemCount == 0 && totalItemCount != 0) {
+                    // no item height is known until the items are laid out, e.g. the RecyclerView hasn't been
+                    // measured yet
+                    if (!mFillCheckOnLayout) {
+                        mFillCheckOnLayout = true;
+                        mRecyclerView.getViewTreeObserver().addOnGlobalLayoutListener(mFillCheckLayoutListener);
+                    }
+                    return;
+                }
+                if (visibleItemCount != 0 && totalItemCount > visibleItemCount + 3 * getSpanCount()) {
                     // if data have filled screen, enable scrolling features
                     mOnScrollListener = new AutoPagerOnScrollListener();
                     mRecyclerView.addOnScrollListener(mOnScrollListener);
                 } else {
-                    if (!inLastPage()) {
-                        // if there are still data that could be loaded to fill the screen, go on loading
-                        loadPage(mIndex + 1);
+                    if (!inLastPage() && !isFailed(mIndex + 1)) {
+                        // if there are still data that could be loaded to fill the screen, request all
+                        // the pages estimated to fill it at once
+                        int count = Math.min(estimateFillPages(visibleItemCount), mLastPageIndex - mIndex);
+                        for (int i = 1; i <= count; i++) {
+                            requestPage(mIndex + i, PageRequestCoordinator.PRIORITY_FILL);
+                        }
+                    } else if (mFirstIndex > 1 && !isFailed(mFirstIndex - 1)) {
+                        // opened at a later page, fill the screen with the pages before it
+                        requestPage(mFirstIndex - 1, PageRequestCoordinator.PRIORITY_FILL);
                     }
                 }
             }
         };
-        if (DEBUG) Log.d(TAG, "enqueue runnable#" + runnable.hashCode());
+        if (PagingDebug.DEBUG) Log.d(TAG, "enqueue runnable#" + runnable.hashCode());
         mHandler.post(runnable);
     }
 
+    /**
+     * Estimate the number of pages needed to fill the screen from the measured item height, the height of
+     * the RecyclerView and the items displayed, which are the items swapped in for the pages set last
+     */
+    private int estimateFillPages(int visibleItemCount) {
+        int itemHeight = getAverageItemHeight(visibleItemCount);
+        int height = mRecyclerView.getHeight() - mRecyclerView.getPaddingTop() - mRecyclerView.getPaddingBottom();
+        int pages = mAdapter.getItemIndex().estimateFillPages(height, itemHeight, getSpanCount(), MAX_FILL_PAGES);
+        if (PagingDebug.DEBUG) Log.d(TAG, "estimateFillPages() " + pages + " pages, item height " + itemHeight);
+        return pages;
+    }
+
+    /**
+     * @return the height of the visible items divided by their number, which is the height of a row divided
+     * by the number of spans in a grid
+     */
+    private int getAverageItemHeight(int visibleItemCount) {
+        if (visibleItemCount == 0) {
+            return 0;
+        }
+        return getVisibleHeight(visibleItemCount) / visibleItemCount;
+    }
+
+    /**
+     * @return the height of the visible items divided by the number of rows they fill, which is the unit of
+     * {@link PrefetchPolicy#getZoneSize()}
+     */
+    private int getAverageRowHeight(int visibleItemCount) {
+        if (visibleItemCount == 0) {
+            return 0;
+        }
+        int spanCount = getSpanCount();
+        return getVisibleHeight(visibleItemCount) / ((visibleItemCount + spanCount - 1) / spanCount);
+    }
+
+    /**
+     * @return the distance from the top of the highest visible item to the bottom of the lowest one
+     */
+    private int getVisibleHeight(int visibleItemCount) {
+        // the children of a staggered grid are not ordered by their positions on screen
+        int top = Integer.MAX_VALUE;
+        int bottom = Integer.MIN_VALUE;
+        for (int i = 0; i < visibleItemCount; i++) {
+            View child = mLayoutManager.getChildAt(i);
+            top = Math.min(top, child.getTop());
+            bottom = Math.max(bottom, child.getBottom());
+        }
+        return bottom - top;
+    }
+
+    /**
+     * @return the number of spans of a grid, or 1
+     */
+    private int getSpanCount() {
+        if (mLayoutManager instanceof GridLayoutManager) {
+            return ((GridLayoutManager) mLayoutManager).getSpanCount();
+        } else if (mLayoutManager instanceof StaggeredGridLayoutManager) {
+            return ((StaggeredGridLayoutManager) mLayoutManager).getSpanCount();
+        }
+        return 1;
+    }
+
+    /**
+     * @return the lowest adapter position of the visible items across all spans, or {@link RecyclerView#NO_POSITION}
+     */
+    private int findFirstVisibleItemPosition() {
+        if (mLayoutManager instanceof LinearLayoutManager) {
+            return ((LinearLayoutManager) mLayoutManager).findFirstVisibleItemPosition();
+        }
+        int first = Integer.MAX_VALUE;
+        if (mLayoutManager instanceof StaggeredGridLayoutManager) {
+            for (int position : ((StaggeredGridLayoutManager) mLayoutManager).findFirstVisibleItemPositions(null)) {
+                if (position != RecyclerView.NO_POSITION) {
+                    first = Math.min(first, position);
+                }
+            }
+        } else {
+            for (int i = 0; i < mLayoutManager.getChildCount(); i++) {
+                first = Math.min(first, mLayoutManager.getPosition(mLayoutManager.getChildAt(i)));
+            }
+        }
+        return first == Integer.MAX_VALUE ? RecyclerView.NO_POSITION : first;
+    }
+
+    /**
+     * @return the highest adapter position of the visible items across all spans, or {@link RecyclerView#NO_POSITION}
+     */
+    private int findLastVisibleItemPosition() {
+        if (mLayoutManager instanceof LinearLayoutManager) {
+            return ((LinearLayoutManager) mLayoutManager).findLastVisibleItemPosition();
+        }
+        int last = RecyclerView.NO_POSITION;
+        if (mLayoutManager instanceof StaggeredGridLayoutManager) {
+            for (int position : ((StaggeredGridLayoutManager) mLayoutManager).findLastVisibleItemPositions(null)) {
+                last = Math.max(last, position);
+            }
+        } else {
+            for (int i = 0; i < mLayoutManager.getChildCount(); i++) {
+                last = Math.max(last, mLayoutManager.getPosition(mLayoutManager.getChildAt(i)));
+            }
+        }
+        return last;
+    }
+
+    private void scrollToPositionWithOffset(int position, int offset) {
+        if (mLayoutManager instanceof LinearLayoutManager) {
+            ((LinearLayoutManager) mLayoutManager).scrollToPositionWithOffset(position, offset);
+        } else if (mLayoutManager instanceof StaggeredGridLayoutManager) {
+            ((StaggeredGridLayoutManager) mLayoutManager).scrollToPositionWithOffset(position, offset);
+        } else {
+            mLayoutManager.scrollToPosition(position);
+        }
+    }
+
+    /**
+     * Remember the first visible item of a page, to keep it at the same offset after the items are updated
+     */
+    private void saveAnchor() {
+        View child = findAnchorChild();
+        if (child != null) {
+            int position = mRecyclerView.getChildLayoutPosition(child);
+            mAnchorPage = mAdapter.getPageIndex(position);
+            mAnchorPositionInPage = mAdapter.getPositionInPage(position);
+            mAnchorOffset = mLayoutManager.getDecoratedTop(child) - mRecyclerView.getPaddingTop();
+            if (PagingDebug.DEBUG) Log.d(TAG, "saveAnchor() page " + mAnchorPage + " position " + mAnchorPositionInPage);
+        }
+    }
+
+    /**
+     * @return the view of the first visible item of a page, or null if there is none
+     */
+    private View findAnchorChild() {
+        for (int i = 0; i < mLayoutManager.getChildCount(); i++) {
+            View child = mLayoutManager.getChildAt(i);
+            int position = mRecyclerView.getChildLayoutPosition(child);
+            if (position != RecyclerView.NO_POSITION && mAdapter.getRowType(position) == AutoPagerAdapter.ITEM) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Request the page at {@code page}, which is passed on to {@link #loadPage(int)} unless it's requested
+     * already, see {@link PageRequestCoordinator}
+     */
+    private void requestPage(int page, int priority) {
+        mRequestCoordinator.request(page, priority);
+    }
+
     /**
      * Start loading data at {@param page},
-     * the result must be delivered to the {@link #mRecyclerView} by calling {@link #setData(TreeMap)}
+     * the result must be delivered to the {@link #mRecyclerView} by calling {@link #setData(PageMap)}
      * either sync or async
      *
      * @param page
@@ -218,6 +670,54 @@ public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.
         mLoadPageMethod.loadPage(page);
     }
 
+    /**
+     * Start loading {@code count} pages from {@code firstPage} on, which should be delivered by a single call
+     * of {@link #setData(PageMap)} if the {@link LoadPageMethod} is a {@link BatchLoadPageMethod},
+     * otherwise each page is loaded by {@link #loadPage(int)}
+     */
+    protected void loadPages(int firstPage, int count) {
+        if (mLoadPageMethod instanceof BatchLoadPageMethod) {
+            ((BatchLoadPageMethod) mLoadPageMethod).loadPages(firstPage, count);
+        } else {
+            for (int i = firstPage; i < firstPage + count; i++) {
+                loadPage(i);
+            }
+        }
+    }
+
+    /**
+     * Called by the {@link LoadPageMethod} when it can't start loading the pages passed on, e.g. it's been
+     * detached, so they are requested again when they are still needed
+     */
+    public void onLoadDropped(int firstPage, int count) {
+        if (PagingDebug.DEBUG) Log.d(TAG, "onLoadDropped() firstPage " + firstPage + " count " + count);
+        mRequestCoordinator.onLoadDropped(firstPage, count);
+        if (mIndex + 1 >= firstPage && mIndex + 1 < firstPage + count) {
+            mPagerTriggered = false;
+            mPagerTriggeredTime = 0;
+        }
+        if (mFirstIndex - 1 >= firstPage && mFirstIndex - 1 < firstPage + count) {
+            mPrevPagerTriggered = false;
+        }
+    }
+
+    /**
+     * Cancel all page requests, e.g. before reloading the first page or when the pages will never be shown.
+     * The pages being loaded are canceled if the {@link LoadPageMethod} is a {@link CancelableLoadPageMethod},
+     * and the pages still needed are requested again on scroll.
+     */
+    public void cancelLoading() {
+        if (PagingDebug.DEBUG) Log.d(TAG, "cancelLoading() called");
+        mRequestCoordinator.cancel();
+        if (mLoadPageMethod instanceof CancelableLoadPageMethod) {
+            ((CancelableLoadPageMethod) mLoadPageMethod).cancelLoading();
+        }
+        mPagerTriggered = false;
+        mPrevPagerTriggered = false;
+        mPagerTriggeredTime = 0;
+        mFooterShownTime = 0;
+    }
+
     /**
      * @return if the current page is the last page
      */
@@ -251,6 +751,21 @@ public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.
         void onDataAttached();
     }
 
+    /**
+     * A listener for the pages failed to load, e.g. to tell the user why
+     */
+    public interface OnPageFailedListener {
+        /**
+         * Called on the main thread when the page at {@code page} has failed to load
+         *
+         * @param cause     the exception thrown by loading the page, a {@link RetryPolicy.CircuitOpenException} if
+         *                  it hasn't been requested from the source as the circuit of the retry policy is open
+         * @param willRetry true if it's retried later by the retry policy, false if it's been given up, or failed to
+         *                  be refreshed while its loaded items are kept
+         */
+        void onPageFailed(int page, Throwable cause, boolean willRetry);
+    }
+
     /**
      * The function interface which provide a function to load a certain page sync/async
      */
@@ -261,6 +776,29 @@ public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.
         void loadPage(int page);
     }
 
+    /**
+     * A {@link LoadPageMethod} which could also load several pages and deliver them at once,
+     * used to fill the screen with a single update
+     */
+    public interface BatchLoadPageMethod extends LoadPageMethod {
+        /**
+         * @param firstPage the first page to load
+         * @param count     the number of consecutive pages to load from {@code firstPage} on
+         */
+        void loadPages(int firstPage, int count);
+    }
+
+    /**
+     * A {@link LoadPageMethod} which could also cancel the pages being loaded, so their results, which will
+     * never be shown, don't waste the network and the battery
+     */
+    public interface CancelableLoadPageMethod extends LoadPageMethod {
+        /**
+         * Cancel loading all pages requested, the loaded pages are kept
+         */
+        void cancelLoading();
+    }
+
     /**
      * A enclosure manages items of the ending view and its animation
      */
@@ -271,7 +809,7 @@ public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.
         public int duration;
 
         public EndViewManager(View view) {
-//            if (DEBUG) Log.d(TAG, "EndViewDelegate() called with " + "view = [" + view.getId() + "]");
+//            if (PagingDebug.DEBUG) Log.d(TAG, "EndViewDelegate() called with " + "view = [" + view.getId() + "]");
             this.refresh = view.findViewById(R.id.iv_end_refresh);
             this.text = (TextView) view.findViewById(R.id.tv_end);
             this.duration = view.getResources().getInteger(android.R.integer.config_mediumAnimTime);
@@ -291,37 +829,152 @@ public class AutoPagerManager<P extends Page<E>, E> implements AutoPagerAdapter.
         }
     }
 
+    /**
+     * An observer scrolling back to the saved anchor once the items of the prepended pages are notified,
+     * before the next layout
+     */
+    private class AnchorObserver extends RecyclerView.AdapterDataObserver {
+        @Override
+        public void onChanged() {
+            restoreAnchor();
+        }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            restoreAnchor();
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            restoreAnchor();
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            restoreAnchor();
+        }
+
+        private void restoreAnchor() {
+            if (mAnchorPage == 0) {
+                return;
+            }
+            int position = mAdapter.getPosition(mAnchorPage, mAnchorPositionInPage);
+            mAnchorPage = 0;
+            if (position != RecyclerView.NO_POSITION) {
+                if (PagingDebug.DEBUG) Log.d(TAG, "restoreAnchor() position " + position + " offset " + mAnchorOffset);
+                scrollToPositionWithOffset(position, mAnchorOffset);
+            }
+        }
+    }
+
+    /**
+     * A SpanSizeLookup giving the special items of {@link AutoPagerAdapter} the full width of a grid,
+     * placeholders one span, and the items the span size of the lookup set before
+     */
+    private static class FullSpanSizeLookup extends GridLayoutManager.SpanSizeLookup {
+        private final GridLayoutManager mGridLayoutManager;
+        private final AutoPagerAdapter<?, ?> mAdapter;
+        private final GridLayoutManager.SpanSizeLookup mItemLookup;
+
+        FullSpanSizeLookup(GridLayoutManager gridLayoutManager, AutoPagerAdapter<?, ?> adapter) {
+            mGridLayoutManager = gridLayoutManager;
+            mAdapter = adapter;
+            GridLayoutManager.SpanSizeLookup lookup = gridLayoutManager.getSpanSizeLookup();
+            // don't wrap the lookup of a previous adapter
+            mItemLookup = lookup instanceof FullSpanSizeLookup ? ((FullSpanSizeLookup) lookup).mItemLookup : lookup;
+        }
+
+        @Override
+        public int getSpanSize(int position) {
+            int type = mAdapter.getRowType(position);
+            if (type == AutoPagerAdapter.PLACEHOLDER) {
+                return 1;
+            } else if (type != AutoPagerAdapter.ITEM) {
+                return mGridLayoutManager.getSpanCount();
+            }
+            return mItemLookup == null ? 1 : mItemLookup.getSpanSize(position);
+        }
+    }
+
     /**
      * An OnScrollListener interpreting scrolling events into paging events
      */
     private class AutoPagerOnScrollListener extends RecyclerView.OnScrollListener {
 
         public AutoPagerOnScrollListener() {
-            if (DEBUG) Log.d(TAG, "AutoPagerOnScrollListener() called with " + "");
+            if (PagingDebug.DEBUG) Log.d(TAG, "AutoPagerOnScrollListener() called with " + "");
         }
 
         @Override
         public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
             super.onScrolled(recyclerView, dx, dy);
 
+            // get displaying info about items
+            int visibleItemCount = mLayoutManager.getChildCount();
+            int totalItemCount = mLayoutManager.getItemCount();
+            int firstVisibleItem = findFirstVisibleItemPosition();
+            int lastVisibleItem = findLastVisibleItemPosition();
+            // the zone is counted in rows
+            int zoneSize = mPrefetchPolicy.getZoneSize() * getSpanCount();
+
+            mPrefetchPolicy.onScrolled(dy, getAverageRowHeight(visibleItemCount));
+
+            // if scroll up reaches the AUTO_PAGER_ZONE above the first page, load the page before it
+            if (dy < 0 && !mPrevPagerTriggered && mFirstIndex > 1 && !isFailed(mFirstIndex - 1)
+                    && firstVisibleItem != RecyclerView.NO_POSITION && firstVisibleItem <= zoneSize) {
+                mPrevPagerTriggered = true;
+                requestPage(mFirstIndex - 1, PageRequestCoordinator.PRIORITY_PREFETCH);
+            }
+
             // if pager's been started, return
             if (mPagerTriggered) {
+                checkFooterShown(lastVisibleItem, totalItemCount);
                 return;
             }
 
-            // get displaying info about items
-            int visibleItemCount = mLayoutManager.getChildCount();
-            int totalItemCount = mLayoutManager.getItemCount();
-            int firstVisibleItem = mLayoutManager.findFirstVisibleItemPosition();
+            if (mLoadDividersOnScroll && loadVisibleDivider(firstVisibleItem, lastVisibleItem)) {
+                return;
+            }
 
             // if scroll reaches the AUTO_PAGER_ZONE, pager starts
-            if (firstVisibleItem >= totalItemCount - AUTO_PAGER_ZONE_SIZE - visibleItemCount) {
+            if (lastVisibleItem >= totalItemCount - 1 - zoneSize) {
                 mPagerTriggered = true;
                 // if not at the end page, start load data for next page
-                if (!inLastPage()) {
-                    loadPage(mIndex + 1);
+                if (!inLastPage() && !isFailed(mIndex + 1)) {
+                    mPagerTriggeredTime = SystemClock.uptimeMillis();
+                    requestPage(mIndex + 1, PageRequestCoordinator.PRIORITY_PREFETCH);
+                    checkFooterShown(lastVisibleItem, totalItemCount);
+                }
+            }
+        }
+
+        /**
+         * Report when the footer becomes visible while the page requested on scroll is loading,
+         * that's when the user starts waiting
+         */
+        private void checkFooterShown(int lastVisibleItem, int totalItemCount) {
+            if (mPagingMetrics == null || mPagerTriggeredTime == 0 || mFooterShownTime != 0) {
+                return;
+            }
+            if (lastVisibleItem == totalItemCount - 1 && totalItemCount > 0
+                    && mAdapter.getRowType(totalItemCount - 1) == AutoPagerAdapter.FOOTER) {
+                mFooterShownTime = SystemClock.uptimeMillis();
+                mPagingMetrics.onFooterShown(mIndex + 1, mFooterShownTime - mPagerTriggeredTime);
+            }
+        }
+
+        /**
+         * @return true if a visible divider is found and its page starts loading
+         */
+        private boolean loadVisibleDivider(int firstVisibleItem, int lastVisibleItem) {
+            for (int i = Math.max(firstVisibleItem, 0); i <= lastVisibleItem && i < mAdapter.getItemCount(); i++) {
+                if (mAdapter.getRowType(i) == AutoPagerAdapter.DIVIDER) {
+                    mPagerTriggered = true;
+                    requestPage(mAdapter.getDividerPage(i), PageRequestCoordinator.PRIORITY_VISIBLE);
+                    return true;
                 }
             }
+            return false;
         }
     }
 }
@@ -16,8 +16,6 @@ import uk.co.senab.actionbarpulltorefresh.library.PullToRefreshLayout;
 import uk.co.senab.actionbarpulltorefresh.library.listeners.OnRefreshListener;
 import uk.co.senab.actionbarpulltorefresh.library.viewdelegates.ScrollYDelegate;
 
-import java.util.TreeMap;
-
 /**
  * An implementation of {@link AutoPagerFragment}, on which the feature of PullToRefresh is added.
  */
@@ -26,6 +24,22 @@ public abstract class AutoPagerRefreshableFragment<P extends Page<E>, E> extends
     private RecyclerView mRecyclerView;
     private PullToRefreshLayout mPullToRefreshLayout;
     private boolean mEmpty = true;
+    /**
+     * The number of pages refreshed in place on pull, 0 to drop all pages and reload the first page
+     */
+    private int mRefreshPageCount = 0;
+
+    /**
+     * @param refreshPageCount the number of pages refreshed in place on pull while all pages are kept
+     *                         displayed, see {@link #refreshPages(int)}; 0 by default to drop all pages and
+     *                         reload the first page, which resets the scroll position
+     */
+    public void setRefreshPageCount(int refreshPageCount) {
+        if (refreshPageCount < 0) {
+            throw new IllegalArgumentException();
+        }
+        mRefreshPageCount = refreshPageCount;
+    }
 
     public void stopRefreshAnimation() {
         if (mPullToRefreshLayout.isRefreshing()) {
@@ -57,7 +71,6 @@ public abstract class AutoPagerRefreshableFragment<P extends Page<E>, E> extends
         if (!mEmpty) {
             startCrossfade();
         }
-        // todo remember the scroll position
         return mPullToRefreshLayout;
     }
 
@@ -120,7 +133,10 @@ public abstract class AutoPagerRefreshableFragment<P extends Page<E>, E> extends
                     @Override
                     public void onRefreshStarted(View v) {
                         AutoPagerRefreshableFragment.this.onRefreshStarted(v);
-                        getAutoPagerManager().removeOnScrollListener();
+                        if (mRefreshPageCount == 0) {
+                            // all pages are reloaded, the listener is added back once the screen is filled again
+                            getAutoPagerManager().removeOnScrollListener();
+                        }
                     }
                 })
                 .setup(mPullToRefreshLayout);
@@ -138,12 +154,18 @@ public abstract class AutoPagerRefreshableFragment<P extends Page<E>, E> extends
     }
 
     protected void onRefreshStarted(View v) {
-        loadPage(1);
+        if (mRefreshPageCount > 0) {
+            refreshPages(mRefreshPageCount);
+        } else {
+            // the pages being loaded are dropped with all other pages after reloading
+            getAutoPagerManager().cancelLoading();
+            loadPage(1);
 //        loadPage(getAutoPagerLoader().firstPage());
+        }
     }
 
     @Override
-    public void onLoadFinished(Loader<TreeMap<Integer, P>> loader, TreeMap<Integer, P> data) {
+    public void onLoadFinished(Loader<PageMap<P>> loader, PageMap<P> data) {
         super.onLoadFinished(loader, data);
         stopRefreshAnimation();
     }
@@ -0,0 +1,302 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * An alternative to {@link AutoPagerLoader} which doesn't depend on the Loader framework and the shared
+ * executor of AsyncTask: the pages are fetched on an executor given by the client, e.g. a dedicated bounded
+ * pool, or a direct executor for tests, so paging isn't held back by unrelated background work. The fetched
+ * pages are merged on the delivery executor, so a saturated pool never holds back pages already fetched.
+ * <p>
+ * The results are delivered in order to the {@link Callback} the same way a loader delivers them to
+ * {@link AutoPagerFragment#onLoadFinished}, so they could be passed to {@link AutoPagerManager#setData(PageMap)}
+ * directly. It's a {@link AutoPagerManager.BatchLoadPageMethod} itself:
+ * <pre>
+ * final AutoPagerManager&lt;ForumPage, Post&gt; manager = new AutoPagerManager&lt;&gt;(recyclerView, source);
+ * source.setCallback(new AutoPagerSource.Callback&lt;ForumPage&gt;() {
+ *     public void onPagesLoaded(PageMap&lt;ForumPage&gt; pages) {
+ *         manager.setData(pages);
+ *     }
+ * });
+ * source.start();
+ * </pre>
+ */
+public abstract class AutoPagerSource<P extends Page<?>> implements AutoPagerManager.BatchLoadPageMethod,
+        AutoPagerManager.CancelableLoadPageMethod {
+    private static final String TAG = "AutoPagerSource";
+    private final PagingEngine<P> mEngine;
+    private final Executor mDeliveryExecutor;
+    private Callback<P> mCallback;
+    private AutoPagerManager.OnPageFailedListener mOnPageFailedListener;
+    /**
+     * The pages delivered last, or null if no pages have been delivered since started
+     */
+    private PageMap<P> mDelivered;
+    private boolean mStarted;
+    private final Runnable mMerge = new Runnable() {
+        @Override
+        public void run() {
+            merge();
+        }
+    };
+
+    /**
+     * @param executor the executor fetching the pages, the results are merged and delivered on the main thread
+     */
+    public AutoPagerSource(Executor executor) {
+        this(executor, new Executor() {
+            private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+            @Override
+            public void execute(@NonNull Runnable command) {
+                mHandler.post(command);
+            }
+        });
+    }
+
+    /**
+     * @param executor         the executor fetching the pages, its concurrency bounds the number of pages
+     *                         fetched at the same time
+     * @param deliveryExecutor the executor merging the fetched pages and delivering the results to the
+     *                         {@link Callback}, which must run its tasks one at a time in order, e.g. the main
+     *                         thread, or a direct executor for tests driven from a single thread
+     */
+    public AutoPagerSource(Executor executor, Executor deliveryExecutor) {
+        if (executor == null || deliveryExecutor == null) {
+            throw new IllegalArgumentException();
+        }
+        mDeliveryExecutor = deliveryExecutor;
+        mEngine = new PagingEngine<>(new PageFetcher.Source<P>() {
+            @Override
+            public P newPage(int index, CancellationToken token) throws DataNotLoadedException {
+                return AutoPagerSource.this.newPage(index, token);
+            }
+        }, new PageFetcher.Listener() {
+            @Override
+            public void onPageFetched(int index) {
+                mDeliveryExecutor.execute(mMerge);
+            }
+        }, executor);
+    }
+
+    /**
+     * Called on the executor to get a page object of a certain index (from network, database etc.)
+     * The index of first page should be moved to 1
+     * <p>
+     * NOTE: this method is called concurrently for different pages if the executor runs tasks concurrently.
+     *
+     * @param index the index to be loaded
+     * @param token canceled when the page will never be shown, so loading it could stop early,
+     *              see {@link CancellationToken}
+     * @return the object instance for the index
+     */
+    @NonNull
+    protected abstract P newPage(int index, CancellationToken token) throws DataNotLoadedException;
+
+    /**
+     * @see AutoPagerLoader#publishPartialPage(Page)
+     */
+    protected void publishPartialPage(P page) {
+        mEngine.publish(page);
+    }
+
+    /**
+     * Release the resources (bitmaps, cursors etc.) held by pages that are no longer used, which are
+     * the evicted pages when {@link #setMaxPages(int)} is set, and all pages when the source is reset.
+     * Called on the delivery executor.
+     */
+    protected void releaseResources(PageMap<P> pages) {
+    }
+
+    /**
+     * @param callback the receiver of the results, called on the delivery executor
+     */
+    public synchronized void setCallback(Callback<P> callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * @param listener called on the delivery executor after the pages reporting a failure are delivered, e.g.
+     *                 to {@link AutoPagerManager#onPageFailed(int, Throwable, boolean)}, or null
+     */
+    public synchronized void setOnPageFailedListener(AutoPagerManager.OnPageFailedListener listener) {
+        mOnPageFailedListener = listener;
+    }
+
+    /**
+     * @see AutoPagerLoader#setPageCache(PageCache)
+     */
+    public void setPageCache(PageCache<P> pageCache) {
+        mEngine.setPageCache(pageCache);
+    }
+
+    /**
+     * @see AutoPagerLoader#setInitialPage(int)
+     */
+    public void setInitialPage(int page) {
+        mEngine.setInitialPage(page);
+    }
+
+    /**
+     * @see AutoPagerLoader#setPagingMetrics(PagingMetrics)
+     */
+    public void setPagingMetrics(PagingMetrics metrics) {
+        mEngine.setMetrics(metrics);
+    }
+
+    /**
+     * @see AutoPagerLoader#setRetryPolicy(RetryPolicy)
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        mEngine.setRetryPolicy(retryPolicy);
+    }
+
+    /**
+     * Set the number of pages requested at the same time, see {@link AutoPagerLoader#setPrefetchWindow(int)}.
+     * How many of them are fetched concurrently is bounded by the executor.
+     */
+    public void setPrefetchWindow(int prefetchWindow) {
+        mEngine.setPrefetchWindow(prefetchWindow);
+    }
+
+    /**
+     * @see AutoPagerLoader#setMaxPages(int)
+     */
+    public void setMaxPages(int maxPages) {
+        mEngine.setMaxPages(maxPages);
+    }
+
+    /**
+     * Start delivering results: the pages loaded so far are delivered again, and the initial page is
+     * loaded if no page is loaded or being loaded.
+     */
+    public void start() {
+        synchronized (this) {
+            mStarted = true;
+            mDelivered = null;
+        }
+        mEngine.loadIfEmpty();
+        mDeliveryExecutor.execute(mMerge);
+    }
+
+    /**
+     * Stop delivering results, the pages being loaded are still merged and delivered after {@link #start()}
+     */
+    public synchronized void stop() {
+        mStarted = false;
+    }
+
+    /**
+     * @see AutoPagerLoader#cancelLoading()
+     */
+    @Override
+    public void cancelLoading() {
+        mEngine.cancel();
+    }
+
+    /**
+     * Stop and cancel loading, then drop all pages
+     */
+    public void reset() {
+        stop();
+        final PageMap<P> pages = mEngine.getPages();
+        final PageMap<P> evicted = mEngine.reset();
+        mDeliveryExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!evicted.isEmpty()) {
+                    releaseResources(evicted);
+                }
+                if (!pages.isEmpty()) {
+                    releaseResources(pages);
+                }
+            }
+        });
+    }
+
+    /**
+     * Restore the saved state the same way as {@link AutoPagerLoader#restoreState(PagingState, PageSerializer)},
+     * except that the pages are read on the calling thread
+     *
+     * @return true if the state is restored, false if pages have been loaded
+     */
+    public boolean restoreState(PagingState state, PageSerializer<P> serializer) {
+        if (!mEngine.restore(state.readPages(serializer), state.getAnchorPage(), state.getLastPage())) {
+            return false;
+        }
+        mDeliveryExecutor.execute(mMerge);
+        return true;
+    }
+
+    @Override
+    public void loadPage(int page) {
+        load(page);
+    }
+
+    /**
+     * @see AutoPagerLoader#load(int)
+     */
+    public void load(int page) {
+        mEngine.load(page);
+    }
+
+    @Override
+    public void loadPages(int firstPage, int count) {
+        mEngine.loadPages(firstPage, count);
+    }
+
+    /**
+     * @see AutoPagerLoader#refresh(int)
+     */
+    public void refresh(int pageCount) {
+        mEngine.refresh(pageCount);
+    }
+
+    /**
+     * Merge the fetched pages and deliver them if they have changed since the last delivery. It runs on the
+     * delivery executor only, so the results are merged and delivered in order.
+     * <p>
+     * The locks are always taken in the order of the engine, the fetcher, then the source, which is why the
+     * lock of the source is never held while calling the engine.
+     */
+    private void merge() {
+        PageMap<P> pages = mEngine.merge();
+        Callback<P> callback;
+        AutoPagerManager.OnPageFailedListener onPageFailedListener;
+        synchronized (this) {
+            if (!mStarted || pages == mDelivered || pages.isEmpty() && pages.getFailedPages().length == 0) {
+                return;
+            }
+            mDelivered = pages;
+            callback = mCallback;
+            onPageFailedListener = mOnPageFailedListener;
+        }
+        if (PagingDebug.DEBUG) Log.d(TAG, "merge() delivering pages.size() " + pages.size());
+        PageMap<P> evicted = mEngine.takeEvicted();
+        if (callback != null) {
+            callback.onPagesLoaded(pages);
+        }
+        List<PagingEngine.Failure> failures = mEngine.takeFailures();
+        if (onPageFailedListener != null) {
+            for (PagingEngine.Failure failure : failures) {
+                onPageFailedListener.onPageFailed(failure.page, failure.cause, failure.willRetry);
+            }
+        }
+        if (!evicted.isEmpty()) {
+            releaseResources(evicted);
+        }
+    }
+
+    public interface Callback<P extends Page<?>> {
+        /**
+         * Called on the delivery executor with all pages loaded so far whenever any page has finished loading
+         */
+        void onPagesLoaded(PageMap<P> pages);
+    }
+}
@@ -3,8 +3,6 @@ package tower.sphia.auto_pager_recycler.lib;
 import android.os.Bundle;
 import android.view.View;
 
-import java.util.TreeMap;
-
 /**
  * A fragment which have implemented basic functions of an auto-pager RecyclerView, leaving
  * the adapter and the function to load a certain page still abstract.
@@ -18,7 +16,7 @@ public abstract class BaseAutoPagerFragment<P extends Page<E>, E> extends BaseRe
     }
 
 
-    public void setData(TreeMap<Integer, P> pages) {
+    public void setData(PageMap<P> pages) {
         mAutoPagerManager.setData(pages);
     }
 
@@ -0,0 +1,62 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Tells {@link AutoPagerLoader#newPage(int)} or {@link AutoPagerSource#newPage(int, CancellationToken)} that the
+ * page it's loading will never be shown, e.g. the first page is reloaded on pull to refresh, or the fragment is
+ * detached, so it could stop early instead of wasting the network and the battery. The worker thread is
+ * interrupted as well, but many blocking calls ignore interrupts. A loader gets it from
+ * {@link AutoPagerLoader#getCancellationToken()}.
+ * <p>
+ * Check {@link #isCanceled()} or call {@link #throwIfCanceled()} between the steps of loading, and abort a blocking
+ * call, e.g. a HTTP request, with {@link #setOnCancelListener(Runnable)}.
+ */
+public final class CancellationToken {
+    private volatile boolean mCanceled;
+    private Runnable mOnCancelListener;
+
+    public boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * @throws CancellationException if the page is canceled, which is never reported as a failure
+     */
+    public void throwIfCanceled() {
+        if (mCanceled) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * @param listener called once on a background thread when the page is canceled, or at once on the calling
+     *                 thread if it's canceled already, null to remove the listener
+     */
+    public void setOnCancelListener(Runnable listener) {
+        synchronized (this) {
+            if (!mCanceled) {
+                mOnCancelListener = listener;
+                return;
+            }
+        }
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Mark the token as canceled at once, while the listener is left to the caller to run outside its locks
+     *
+     * @return the listener to be called, or null if there is none or it's canceled already
+     */
+    synchronized Runnable cancel() {
+        if (mCanceled) {
+            return null;
+        }
+        mCanceled = true;
+        Runnable listener = mOnCancelListener;
+        mOnCancelListener = null;
+        return listener;
+    }
+}
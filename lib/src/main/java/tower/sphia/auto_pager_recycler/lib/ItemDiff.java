@@ -0,0 +1,262 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the difference between an old and a new list of items as a list of {@link Op}s which could be
+ * dispatched to a {@link android.support.v7.widget.RecyclerView.Adapter} in order.
+ * <p>
+ * The longest common subsequence is found by the Myers algorithm after trimming the common head and tail,
+ * then the removed and inserted items representing the same object are turned into moves.
+ * It's pure computation, so it's meant to run on a worker thread.
+ */
+class ItemDiff {
+    /**
+     * Over this number of edits, the lists are considered totally different to bound time and memory
+     */
+    private static final int MAX_EDITS = 1000;
+    /**
+     * Over this number of pairs of removed and inserted items, moves are not detected
+     */
+    private static final int MAX_MOVE_CANDIDATES = 10000;
+
+    private ItemDiff() {
+    }
+
+    /**
+     * @return the operations turning the old list into the new list, or a single {@link Op#RELOAD} if the
+     * lists are too different
+     */
+    static List<Op> diff(int oldSize, int newSize, Callback callback) {
+        int[] oldToNew = new int[oldSize];
+        int[] newToOld = new int[newSize];
+        Arrays.fill(oldToNew, -1);
+        Arrays.fill(newToOld, -1);
+
+        // the common head and tail
+        int head = 0;
+        while (head < oldSize && head < newSize && callback.areItemsTheSame(head, head)) {
+            oldToNew[head] = head;
+            newToOld[head] = head;
+            head++;
+        }
+        int tail = 0;
+        while (tail < oldSize - head && tail < newSize - head
+                && callback.areItemsTheSame(oldSize - 1 - tail, newSize - 1 - tail)) {
+            oldToNew[oldSize - 1 - tail] = newSize - 1 - tail;
+            newToOld[newSize - 1 - tail] = oldSize - 1 - tail;
+            tail++;
+        }
+
+        if (!matchMiddle(head, oldSize - tail, head, newSize - tail, oldToNew, newToOld, callback)) {
+            List<Op> ops = new ArrayList<>(1);
+            ops.add(new Op(Op.RELOAD, 0, 0));
+            return ops;
+        }
+        matchMoves(oldToNew, newToOld, callback);
+        return toOps(oldToNew, newToOld, callback);
+    }
+
+    /**
+     * Match the items of old[oldStart, oldEnd) and new[newStart, newEnd) along their longest common subsequence
+     *
+     * @return false if there are more than {@link #MAX_EDITS} edits
+     */
+    private static boolean matchMiddle(int oldStart, int oldEnd, int newStart, int newEnd,
+                                       int[] oldToNew, int[] newToOld, Callback callback) {
+        int n = oldEnd - oldStart;
+        int m = newEnd - newStart;
+        if (n == 0 || m == 0) {
+            return true;
+        }
+        int max = Math.min(n + m, MAX_EDITS);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        // trace.get(d) holds v[-d..d] after the d-th round
+        List<int[]> trace = new ArrayList<>();
+        int edits = -1;
+        for (int d = 0; d <= max && edits == -1; d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+                    x = v[offset + k + 1];
+                } else {
+                    x = v[offset + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && callback.areItemsTheSame(oldStart + x, newStart + y)) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    edits = d;
+                    break;
+                }
+            }
+            trace.add(Arrays.copyOfRange(v, offset - d, offset + d + 1));
+        }
+        if (edits == -1) {
+            return false;
+        }
+
+        // walk back along the path, matching the items on the diagonals
+        int x = n;
+        int y = m;
+        for (int d = edits; d > 0; d--) {
+            int[] prev = trace.get(d - 1);
+            int k = x - y;
+            int prevK;
+            if (k == -d || (k != d && prev[k - 1 + d - 1] < prev[k + 1 + d - 1])) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            int prevX = prev[prevK + d - 1];
+            int prevY = prevX - prevK;
+            while (x > prevX && y > prevY) {
+                x--;
+                y--;
+                oldToNew[oldStart + x] = newStart + y;
+                newToOld[newStart + y] = oldStart + x;
+            }
+            x = prevX;
+            y = prevY;
+        }
+        while (x > 0 && y > 0) {
+            x--;
+            y--;
+            oldToNew[oldStart + x] = newStart + y;
+            newToOld[newStart + y] = oldStart + x;
+        }
+        return true;
+    }
+
+    /**
+     * Match the removed items with the inserted items representing the same object
+     */
+    private static void matchMoves(int[] oldToNew, int[] newToOld, Callback callback) {
+        List<Integer> removed = new ArrayList<>();
+        List<Integer> inserted = new ArrayList<>();
+        for (int i = 0; i < oldToNew.length; i++) {
+            if (oldToNew[i] == -1) {
+                removed.add(i);
+            }
+        }
+        for (int j = 0; j < newToOld.length; j++) {
+            if (newToOld[j] == -1) {
+                inserted.add(j);
+            }
+        }
+        if ((long) removed.size() * inserted.size() > MAX_MOVE_CANDIDATES) {
+            return;
+        }
+        for (int i : removed) {
+            for (int j : inserted) {
+                if (newToOld[j] == -1 && callback.areItemsTheSame(i, j)) {
+                    oldToNew[i] = j;
+                    newToOld[j] = i;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Replay the matching on a simulated list to get the positions of each operation
+     */
+    private static List<Op> toOps(int[] oldToNew, int[] newToOld, Callback callback) {
+        List<Op> ops = new ArrayList<>();
+        // removals from bottom to top, so the positions above are not affected
+        for (int i = oldToNew.length - 1; i >= 0; i--) {
+            if (oldToNew[i] == -1) {
+                Op last = ops.isEmpty() ? null : ops.get(ops.size() - 1);
+                if (last != null && last.type == Op.REMOVE && last.position == i + 1) {
+                    last.position = i;
+                    last.count++;
+                } else {
+                    ops.add(new Op(Op.REMOVE, i, 1));
+                }
+            }
+        }
+        // the simulated list holding the old position of each item, or -1 for an inserted item
+        List<Integer> current = new ArrayList<>(newToOld.length);
+        for (int i = 0; i < oldToNew.length; i++) {
+            if (oldToNew[i] != -1) {
+                current.add(i);
+            }
+        }
+        for (int j = 0; j < newToOld.length; j++) {
+            int i = newToOld[j];
+            if (i == -1) {
+                Op last = ops.isEmpty() ? null : ops.get(ops.size() - 1);
+                if (last != null && last.type == Op.INSERT && last.position + last.count == j) {
+                    last.count++;
+                } else {
+                    ops.add(new Op(Op.INSERT, j, 1));
+                }
+                current.add(j, -1);
+            } else if (current.get(j) != i) {
+                int from = current.subList(j, current.size()).indexOf(i) + j;
+                ops.add(new Op(Op.MOVE, from, j));
+                current.remove(from);
+                current.add(j, i);
+            }
+        }
+        // changes at the final positions
+        for (int j = 0; j < newToOld.length; j++) {
+            int i = newToOld[j];
+            if (i != -1 && !callback.areContentsTheSame(i, j)) {
+                Op last = ops.isEmpty() ? null : ops.get(ops.size() - 1);
+                if (last != null && last.type == Op.CHANGE && last.position + last.count == j) {
+                    last.count++;
+                } else {
+                    ops.add(new Op(Op.CHANGE, j, 1));
+                }
+            }
+        }
+        return ops;
+    }
+
+    interface Callback {
+        /**
+         * @return true if the old item at {@code oldPosition} and the new item at {@code newPosition}
+         * represent the same object
+         */
+        boolean areItemsTheSame(int oldPosition, int newPosition);
+
+        /**
+         * Called only for the same items
+         *
+         * @return true if the two items are displayed the same
+         */
+        boolean areContentsTheSame(int oldPosition, int newPosition);
+    }
+
+    /**
+     * An operation on the list. For {@link #MOVE}, {@link #count} is the position moved to.
+     */
+    static class Op {
+        static final int INSERT = 1;
+        static final int REMOVE = 2;
+        static final int MOVE = 3;
+        static final int CHANGE = 4;
+        static final int RELOAD = 5;
+        final int type;
+        int position;
+        int count;
+
+        Op(int type, int position, int count) {
+            this.type = type;
+            this.position = position;
+            this.count = count;
+        }
+
+        @Override
+        public String toString() {
+            return "Op{type=" + type + ", position=" + position + ", count=" + count + "}";
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A flat index of the items of {@link AutoPagerAdapter}, mapping an adapter position to a view type and an element.
+ * <p>
+ * Instead of an object per item, it's made of segments held in primitive arrays: each page is one segment of
+ * items, and each divider, footer or ending view is a segment of one item. A position is mapped to
+ * (segment, offset in segment) by a binary search over the segment starts, so a lookup is O(log pages).
+ * The elements of a {@link RandomAccessPage} or a page which is a {@link RandomAccess} {@link List}, e.g. an
+ * ArrayList, aren't copied, they are got from the page when they are needed. Only the elements of a page which
+ * could merely be iterated are copied into one array when the page is first indexed, and the array is reused
+ * as long as the same page instance is indexed again. So a page must not be modified once it's loaded.
+ * <p>
+ * In the sparse mode, with a page size given, each missing page is represented by that many placeholders
+ * instead of a divider, including the pages after the last loaded page up to {@link Page#last()}, so the
+ * index has the full number of items. A run of missing pages is one segment.
+ * <p>
+ * A divider or a footer whose page has been given up after failing to load, see {@link PageMap#getFailedPages()},
+ * is an error row instead.
+ * <p>
+ * Instances never change after creation, so an old index could be read on a worker thread while a new
+ * one is displayed.
+ */
+class ItemIndex<E> {
+    /*
+     * The view types of the items, published as the constants of AutoPagerAdapter. They are defined here so the
+     * paging core (Page, PageMap, ItemIndex and ItemDiff) doesn't depend on any Android class, and could be
+     * compiled and benchmarked on a plain JVM.
+     */
+    static final int ITEM = 1;
+    static final int DIVIDER = 2;
+    static final int FOOTER = 3;
+    static final int END = 4;
+    static final int PLACEHOLDER = 5;
+    static final int ERROR = 6;
+    private static final Object[] NO_ELEMENTS = new Object[0];
+    private static final int[] NO_FAILED = new int[0];
+    private final int mSegmentCount;
+    /**
+     * The adapter position of the first item of each segment
+     */
+    private final int[] mStarts;
+    private final int[] mTypes;
+    /**
+     * The page index of each segment of items, the page to load of each divider or error row, the first page
+     * of each run of placeholders, increasing strictly
+     */
+    private final int[] mPageIndices;
+    private final Page<?>[] mPages;
+    private final Object[][] mElements;
+    private final int mSize;
+    /**
+     * The index of the last indexed page, including empty pages, or 0
+     */
+    private final int mLastPage;
+    /**
+     * The number of placeholders of a missing page, 0 if not in the sparse mode
+     */
+    private final int mPageSize;
+
+    private ItemIndex(Builder builder) {
+        mSegmentCount = builder.count;
+        mStarts = builder.starts;
+        mTypes = builder.types;
+        mPageIndices = builder.pageIndices;
+        mPages = builder.pages;
+        mElements = builder.elements;
+        mSize = builder.size;
+        mLastPage = builder.lastPage;
+        mPageSize = builder.pageSize;
+    }
+
+    static <E> ItemIndex<E> empty() {
+        return new ItemIndex<>(new Builder(0, 0, NO_FAILED));
+    }
+
+    /**
+     * Index all pages, with a divider wherever pages are missing and a footer or an ending view at the end
+     *
+     * @param previous the previous index whose element arrays could be reused, or null
+     */
+    static <E> ItemIndex<E> build(Iterable<? extends Page<E>> pages, boolean inLastPage, ItemIndex<E> previous) {
+        return build(pages, inLastPage, previous, 0, NO_FAILED);
+    }
+
+    /**
+     * @param pageSize    the number of placeholders of a missing page in the sparse mode, or 0 for dividers
+     * @param failedPages the indices of the pages failed to load in ascending order, shown as error rows
+     */
+    static <E> ItemIndex<E> build(Iterable<? extends Page<E>> pages, boolean inLastPage, ItemIndex<E> previous,
+                                  int pageSize, int[] failedPages) {
+        Builder builder = new Builder(previous == null ? 16 : previous.mSegmentCount + 2, pageSize, failedPages);
+        int lastPageOfAll = 0;
+        for (Page<E> page : pages) {
+            addPage(builder, page, previous);
+            lastPageOfAll = page.last();
+        }
+        if (pageSize > 0 && lastPageOfAll > builder.lastPage) {
+            addPlaceholders(builder, lastPageOfAll);
+        }
+        addEnd(builder, inLastPage);
+        return new ItemIndex<>(builder);
+    }
+
+    /**
+     * @param failedPages the indices of the pages failed to load in ascending order
+     * @return a new index with {@code page} added after the last page of this index
+     */
+    ItemIndex<E> append(Page<E> page, boolean inLastPage, int[] failedPages) {
+        if (mPageSize > 0) {
+            throw new IllegalStateException("a sparse index could not be appended");
+        }
+        Builder builder = new Builder(mSegmentCount + 2, 0, failedPages);
+        // all segments but the footer, the ending view or the error row at the end
+        for (int i = 0; i < mSegmentCount - 1; i++) {
+            builder.add(mTypes[i], mPageIndices[i], mPages[i], mElements[i], getSegmentSize(i));
+        }
+        builder.lastPage = mLastPage;
+        addPage(builder, page, null);
+        addEnd(builder, inLastPage);
+        return new ItemIndex<>(builder);
+    }
+
+    /**
+     * @param page a page of the same index as the last page of this index, whose items start with all items
+     *             of the last page
+     * @return a new index with the last page replaced by {@code page}
+     */
+    ItemIndex<E> grow(Page<E> page, boolean inLastPage, int[] failedPages) {
+        if (mPageSize > 0) {
+            throw new IllegalStateException("a sparse index could not be grown");
+        }
+        Builder builder = new Builder(mSegmentCount + 1, 0, failedPages);
+        // all segments but the items of the page and the footer, the ending view or the error row at the end
+        for (int i = 0; i < mSegmentCount - 1; i++) {
+            if (mTypes[i] != ITEM || mPageIndices[i] != page.index()) {
+                builder.add(mTypes[i], mPageIndices[i], mPages[i], mElements[i], getSegmentSize(i));
+            }
+        }
+        // the divider before the page, if any, has been added
+        builder.lastPage = page.index() - 1;
+        addPage(builder, page, null);
+        addEnd(builder, inLastPage);
+        return new ItemIndex<>(builder);
+    }
+
+    /**
+     * Add the ending view, or the error row if the next page failed to load, or the footer
+     */
+    private static void addEnd(Builder builder, boolean inLastPage) {
+        if (inLastPage) {
+            builder.add(END, Integer.MAX_VALUE, null, null, 1);
+        } else if (builder.lastPage == 0 && builder.failedPages.length > 0) {
+            // no page at all, e.g. the initial page which isn't page 1 has failed
+            builder.add(ERROR, builder.failedPages[0], null, null, 1);
+        } else if (builder.isFailed(builder.lastPage + 1)) {
+            builder.add(ERROR, builder.lastPage + 1, null, null, 1);
+        } else {
+            builder.add(FOOTER, Integer.MAX_VALUE, null, null, 1);
+        }
+    }
+
+    private static <E> void addPage(Builder builder, Page<E> page, ItemIndex<E> previous) {
+        int index = page.index();
+        if (index != builder.lastPage + 1) {
+            if (builder.pageSize > 0) {
+                addPlaceholders(builder, index - 1);
+            } else {
+                builder.add(builder.isFailed(index - 1) ? ERROR : DIVIDER, index - 1, null, null, 1);
+            }
+        }
+        builder.lastPage = index;
+        int size = getRandomAccessSize(page);
+        if (size != -1) {
+            if (size > 0) {
+                // no element array, the elements are got from the page
+                builder.add(ITEM, index, page, null, size);
+            }
+            return;
+        }
+        Object[] elements = previous == null ? null : previous.getElements(page);
+        if (elements == null) {
+            elements = toArray(page);
+        }
+        // an empty page takes no position
+        if (elements.length > 0) {
+            builder.add(ITEM, index, page, elements, elements.length);
+        }
+    }
+
+    /**
+     * Add a run of placeholders for the missing pages after the last added page up to {@code lastMissingPage}
+     */
+    private static void addPlaceholders(Builder builder, int lastMissingPage) {
+        long count = (long) (lastMissingPage - builder.lastPage) * builder.pageSize;
+        if (builder.size + count >= Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("too many placeholders for page " + lastMissingPage);
+        }
+        builder.add(PLACEHOLDER, builder.lastPage + 1, null, null, (int) count);
+        builder.lastPage = lastMissingPage;
+    }
+
+    /**
+     * @return the number of elements of a page whose elements could be got by position, or -1 if it could
+     * merely be iterated
+     */
+    private static int getRandomAccessSize(Page<?> page) {
+        if (page instanceof RandomAccessPage) {
+            return ((RandomAccessPage<?>) page).size();
+        }
+        if (page instanceof List && page instanceof RandomAccess) {
+            return ((List<?>) page).size();
+        }
+        return -1;
+    }
+
+    private static Object[] toArray(Page<?> page) {
+        if (page instanceof Collection) {
+            return ((Collection<?>) page).toArray();
+        }
+        List<Object> elements = new ArrayList<>();
+        for (Object e : page) {
+            elements.add(e);
+        }
+        return elements.isEmpty() ? NO_ELEMENTS : elements.toArray();
+    }
+
+    /**
+     * @return the element array indexed for this page instance, or null
+     */
+    private Object[] getElements(Page<?> page) {
+        int segment = Arrays.binarySearch(mPageIndices, 0, mSegmentCount, page.index());
+        if (segment >= 0 && mPages[segment] == page) {
+            return mElements[segment];
+        }
+        return null;
+    }
+
+    /**
+     * @return the segment containing {@code position}
+     */
+    private int getSegment(int position) {
+        if (position < 0 || position >= mSize) {
+            throw new IndexOutOfBoundsException("position " + position + ", size " + mSize);
+        }
+        int segment = Arrays.binarySearch(mStarts, 0, mSegmentCount, position);
+        // when not found, binarySearch returns (-(insertion point) - 1), and the segment is the one before
+        return segment >= 0 ? segment : -segment - 2;
+    }
+
+    private int getSegmentSize(int segment) {
+        return (segment == mSegmentCount - 1 ? mSize : mStarts[segment + 1]) - mStarts[segment];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Estimate the number of pages to add after the indexed pages to fill a screen, which is filled when there
+     * are more than 3 rows beyond the rows fitting in its height, from the average number of items of the
+     * indexed pages
+     *
+     * @param height     the height of the screen
+     * @param itemHeight the height of a row divided by the number of spans
+     * @return at least 1 and at most {@code maxPages}, or 1 if the heights are unknown
+     */
+    int estimateFillPages(int height, int itemHeight, int spanCount, int maxPages) {
+        if (height <= 0 || itemHeight <= 0) {
+            return 1;
+        }
+        int items = 0;
+        int pages = 0;
+        for (int i = 0; i < mSegmentCount; i++) {
+            if (mTypes[i] == ITEM) {
+                items += getSegmentSize(i);
+                pages++;
+            }
+        }
+        int missingItems = height / itemHeight + 3 * spanCount + 1 - mSize;
+        int itemsPerPage = pages == 0 ? 1 : Math.max(1, items / pages);
+        int missingPages = (missingItems + itemsPerPage - 1) / itemsPerPage;
+        return Math.max(1, Math.min(missingPages, maxPages));
+    }
+
+    int getType(int position) {
+        return mTypes[getSegment(position)];
+    }
+
+    @SuppressWarnings("unchecked")
+    E getItem(int position) {
+        int segment = getSegment(position);
+        if (mTypes[segment] != ITEM) {
+            throw new IllegalArgumentException("position " + position + " is not an item");
+        }
+        Object[] elements = mElements[segment];
+        if (elements == null) {
+            Page<?> page = mPages[segment];
+            if (page instanceof RandomAccessPage) {
+                return ((RandomAccessPage<E>) page).get(position - mStarts[segment]);
+            }
+            return ((List<E>) page).get(position - mStarts[segment]);
+        }
+        return (E) elements[position - mStarts[segment]];
+    }
+
+    /**
+     * @return true if the items at {@code position} of this index and at {@code otherPosition} of {@code other} are
+     * the same element of the same page instance, which is known without reading the element since a page isn't
+     * modified once it's loaded
+     */
+    boolean isSameElement(int position, ItemIndex<?> other, int otherPosition) {
+        int segment = getSegment(position);
+        int otherSegment = other.getSegment(otherPosition);
+        return mTypes[segment] == ITEM && other.mTypes[otherSegment] == ITEM
+                && mPages[segment] == other.mPages[otherSegment]
+                && position - mStarts[segment] == otherPosition - other.mStarts[otherSegment];
+    }
+
+    /**
+     * @return the index of the page the item or the placeholder at {@code position} belongs to, or for a divider
+     * or an error row the index of the missing page right before the next page
+     */
+    int getPageIndex(int position) {
+        int segment = getSegment(position);
+        if (mTypes[segment] == PLACEHOLDER) {
+            return mPageIndices[segment] + (position - mStarts[segment]) / mPageSize;
+        }
+        return mPageIndices[segment];
+    }
+
+    /**
+     * @return the position of the item or the placeholder at {@code position} within its page
+     */
+    int getPositionInPage(int position) {
+        int segment = getSegment(position);
+        if (mTypes[segment] == PLACEHOLDER) {
+            return (position - mStarts[segment]) % mPageSize;
+        }
+        if (mTypes[segment] != ITEM) {
+            throw new IllegalArgumentException("position " + position + " is not an item");
+        }
+        return position - mStarts[segment];
+    }
+
+    /**
+     * @return the adapter position of the item or the placeholder at {@code positionInPage} of the page at
+     * {@code pageIndex}, or -1 if there is no such item
+     */
+    int getPosition(int pageIndex, int positionInPage) {
+        int segment = Arrays.binarySearch(mPageIndices, 0, mSegmentCount, pageIndex);
+        if (segment < 0) {
+            // the page may be in a run of placeholders starting before it
+            segment = -segment - 2;
+            if (segment < 0 || mTypes[segment] != PLACEHOLDER) {
+                return -1;
+            }
+        }
+        if (mTypes[segment] == PLACEHOLDER) {
+            int start = mStarts[segment] + (pageIndex - mPageIndices[segment]) * mPageSize;
+            if (positionInPage < 0 || positionInPage >= mPageSize
+                    || start + positionInPage >= mStarts[segment] + getSegmentSize(segment)) {
+                return -1;
+            }
+            return start + positionInPage;
+        }
+        if (mTypes[segment] != ITEM || positionInPage < 0 || positionInPage >= getSegmentSize(segment)) {
+            return -1;
+        }
+        return mStarts[segment] + positionInPage;
+    }
+
+    private static class Builder {
+        final int pageSize;
+        final int[] failedPages;
+        int count;
+        int size;
+        int lastPage;
+        int[] starts;
+        int[] types;
+        int[] pageIndices;
+        Page<?>[] pages;
+        Object[][] elements;
+
+        Builder(int capacity, int pageSize, int[] failedPages) {
+            this.pageSize = pageSize;
+            this.failedPages = failedPages;
+            starts = new int[capacity];
+            types = new int[capacity];
+            pageIndices = new int[capacity];
+            pages = new Page<?>[capacity];
+            elements = new Object[capacity][];
+        }
+
+        boolean isFailed(int pageIndex) {
+            return Arrays.binarySearch(failedPages, pageIndex) >= 0;
+        }
+
+        void add(int type, int pageIndex, Page<?> page, Object[] pageElements, int itemCount) {
+            if (count == starts.length) {
+                int capacity = Math.max(8, count * 2);
+                starts = Arrays.copyOf(starts, capacity);
+                types = Arrays.copyOf(types, capacity);
+                pageIndices = Arrays.copyOf(pageIndices, capacity);
+                pages = Arrays.copyOf(pages, capacity);
+                elements = Arrays.copyOf(elements, capacity);
+            }
+            starts[count] = size;
+            types[count] = type;
+            pageIndices[count] = pageIndex;
+            pages[count] = page;
+            elements[count] = pageElements;
+            count++;
+            size += itemCount;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A two-tier cache of pages for {@link AutoPagerLoader}: a size-bounded in-memory LRU in front of a
+ * size-bounded directory on disk. Every entry remembers when it was fetched, and is stale after the
+ * time-to-live, see {@link AutoPagerLoader#setPageCache(PageCache)} for how stale pages are revalidated.
+ * <p>
+ * All methods are called on the worker threads of the loader. The memory tier is guarded by the cache itself
+ * and the disk tier by a lock of its own, always taken first, so a page found in memory is never held back
+ * by the file I/O of other threads.
+ *
+ * @param <P> the type of page
+ */
+public class PageCache<P extends Page<?>> {
+    private static final String TAG = "PageCache";
+    private static final String FILE_PREFIX = "page_";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private final File mDirectory;
+    private final PageSerializer<P> mSerializer;
+    private final long mTimeToLiveMillis;
+    private final long mMaxDiskBytes;
+    private final LinkedHashMap<Integer, Entry<P>> mMemory;
+    /**
+     * Guards the cache files and {@link #mDiskBytes}
+     */
+    private final Object mDiskLock = new Object();
+    /**
+     * The total size of the cache files, -1 before the directory has been scanned
+     */
+    private long mDiskBytes = -1;
+
+    /**
+     * @param context        the context to get the cache dir of the app
+     * @param name           the name of the sub-directory of the cache dir, different for each multi-page source
+     * @param serializer     the serializer of pages, or null for a memory-only cache
+     * @param maxMemoryPages the max number of pages kept in memory
+     * @param maxDiskBytes   the max size of the cache files
+     * @param timeToLive     the time in milliseconds after which a page is stale
+     */
+    public PageCache(Context context, String name, PageSerializer<P> serializer,
+                     int maxMemoryPages, long maxDiskBytes, long timeToLive) {
+        this(new File(context.getCacheDir(), name), serializer, maxMemoryPages, maxDiskBytes, timeToLive);
+    }
+
+    /**
+     * @param directory the directory of the cache files, used only by this cache
+     * @see #PageCache(Context, String, PageSerializer, int, long, long)
+     */
+    public PageCache(File directory, PageSerializer<P> serializer,
+                     final int maxMemoryPages, long maxDiskBytes, long timeToLive) {
+        if (maxMemoryPages < 0 || maxDiskBytes < 0 || timeToLive < 0) {
+            throw new IllegalArgumentException();
+        }
+        mDirectory = directory;
+        mSerializer = serializer;
+        mMaxDiskBytes = maxDiskBytes;
+        mTimeToLiveMillis = timeToLive;
+        mMemory = new LinkedHashMap<Integer, Entry<P>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry<P>> eldest) {
+                return size() > maxMemoryPages;
+            }
+        };
+    }
+
+    /**
+     * @return the cached page at {@code index} from memory or disk, or null if it's not cached
+     */
+    public Entry<P> get(int index) {
+        synchronized (this) {
+            Entry<P> entry = mMemory.get(index);
+            if (entry != null || mSerializer == null) {
+                return entry;
+            }
+        }
+        synchronized (mDiskLock) {
+            Entry<P> entry = readFile(index);
+            synchronized (this) {
+                // the page may have been put while the file was read
+                Entry<P> put = mMemory.get(index);
+                if (put != null) {
+                    return put;
+                }
+                if (entry != null) {
+                    mMemory.put(index, entry);
+                }
+                return entry;
+            }
+        }
+    }
+
+    public void put(P page) {
+        Entry<P> entry = new Entry<>(page, System.currentTimeMillis(), mTimeToLiveMillis);
+        if (mSerializer == null) {
+            synchronized (this) {
+                mMemory.put(page.index(), entry);
+            }
+            return;
+        }
+        synchronized (mDiskLock) {
+            synchronized (this) {
+                mMemory.put(page.index(), entry);
+            }
+            writeFile(entry);
+        }
+    }
+
+    public void remove(int index) {
+        synchronized (mDiskLock) {
+            synchronized (this) {
+                mMemory.remove(index);
+            }
+            deleteFile(getFile(index));
+        }
+    }
+
+    public void clear() {
+        synchronized (mDiskLock) {
+            synchronized (this) {
+                mMemory.clear();
+            }
+            File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    deleteFile(file);
+                }
+            }
+        }
+    }
+
+    private File getFile(int index) {
+        return new File(mDirectory, FILE_PREFIX + index);
+    }
+
+    private Entry<P> readFile(int index) {
+        File file = getFile(index);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            long time = in.readLong();
+            P page = mSerializer.read(in);
+            if (page == null || page.index() != index) {
+                // a renamed or corrupt file must never serve another page
+                if (PagingDebug.DEBUG) Log.e(TAG, "readFile() page " + index + " doesn't match its file");
+                closeQuietly(in);
+                in = null;
+                deleteFile(file);
+                return null;
+            }
+            // touch the file so the disk tier is trimmed in the order of use
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry<>(page, time, mTimeToLiveMillis);
+        } catch (IOException e) {
+            if (PagingDebug.DEBUG) Log.e(TAG, "readFile() failed for page " + index, e);
+            deleteFile(file);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void writeFile(Entry<P> entry) {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            return;
+        }
+        File file = getFile(entry.page.index());
+        File temp = new File(mDirectory, file.getName() + TEMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeLong(entry.time);
+            mSerializer.write(entry.page, out);
+            out.close();
+            out = null;
+            deleteFile(file);
+            if (temp.renameTo(file)) {
+                addDiskBytes(file.length());
+            }
+        } catch (IOException e) {
+            if (PagingDebug.DEBUG) Log.e(TAG, "writeFile() failed for page " + entry.page.index(), e);
+        } finally {
+            closeQuietly(out);
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+        trimDisk();
+    }
+
+    private void deleteFile(File file) {
+        long length = file.length();
+        if (file.delete()) {
+            addDiskBytes(-length);
+        }
+    }
+
+    private void addDiskBytes(long bytes) {
+        if (mDiskBytes != -1) {
+            mDiskBytes += bytes;
+        }
+    }
+
+    /**
+     * Delete the least recently used files until the total size is within {@link #mMaxDiskBytes}
+     */
+    private void trimDisk() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        if (mDiskBytes == -1) {
+            mDiskBytes = 0;
+            for (File file : files) {
+                mDiskBytes += file.length();
+            }
+        }
+        if (mDiskBytes <= mMaxDiskBytes) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : files) {
+            if (mDiskBytes <= mMaxDiskBytes) {
+                break;
+            }
+            deleteFile(file);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * A cached page and the time it was fetched
+     */
+    public static class Entry<P> {
+        public final P page;
+        public final long time;
+        private final long mTimeToLive;
+
+        Entry(P page, long time, long timeToLive) {
+            this.page = page;
+            this.time = time;
+            mTimeToLive = timeToLive;
+        }
+
+        /**
+         * @return true if the page was fetched within the time-to-live
+         */
+        public boolean isFresh() {
+            return System.currentTimeMillis() - time < mTimeToLive;
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches pages concurrently on a bounded thread pool and hands the fetched pages out in the order of
+ * their indices.
+ * <p>
+ * A page which is being fetched won't be fetched again, and a fetched page is only handed out when all
+ * the pages of lower indices requested before it have been fetched or failed.
+ */
+class PageFetcher<P extends Page<?>> {
+    private static final String TAG = "PageFetcher";
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    private static final AtomicInteger sThreadCount = new AtomicInteger();
+    /**
+     * Runs the cancel listeners of the tokens, which may block, e.g. aborting a HTTP request, so they are run
+     * neither under the locks of the fetcher and the engine nor on the main thread
+     */
+    private static final Executor CANCEL_EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "AutoPager cancel");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private final Source<P> mSource;
+    private final Listener mListener;
+    private final Executor mExecutor;
+    /**
+     * The thread pool created by the fetcher, or null if the executor is given
+     */
+    private final ThreadPoolExecutor mPool;
+    /**
+     * The pages being fetched or fetched but not handed out yet, sorted by index
+     */
+    private final TreeMap<Integer, Future<P>> mFetches = new TreeMap<>();
+    /**
+     * The pages fetched in background, which don't hold back the pages after them
+     */
+    private final Set<Integer> mBackground = new HashSet<>();
+    /**
+     * The tokens of the pages in {@link #mFetches}, canceled together with their fetches
+     */
+    private final Map<Integer, CancellationToken> mTokens = new HashMap<>();
+    /**
+     * The listener of the timings, or null to measure nothing
+     */
+    private volatile PagingMetrics mMetrics;
+
+    PageFetcher(Source<P> source, Listener listener, int maxConcurrency) {
+        mSource = source;
+        mListener = listener;
+        mPool = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "AutoPager #" + sThreadCount.incrementAndGet());
+            }
+        });
+        mPool.allowCoreThreadTimeOut(true);
+        mExecutor = mPool;
+    }
+
+    /**
+     * @param executor the executor running the fetches, which bounds their concurrency by itself
+     */
+    PageFetcher(Source<P> source, Listener listener, Executor executor) {
+        mSource = source;
+        mListener = listener;
+        mPool = null;
+        mExecutor = executor;
+    }
+
+    /**
+     * @param maxConcurrency the max number of pages being fetched at the same time, no effect if the
+     *                       executor is given
+     */
+    synchronized void setMaxConcurrency(int maxConcurrency) {
+        if (mPool == null) {
+            return;
+        }
+        if (maxConcurrency > mPool.getMaximumPoolSize()) {
+            mPool.setMaximumPoolSize(maxConcurrency);
+            mPool.setCorePoolSize(maxConcurrency);
+        } else {
+            mPool.setCorePoolSize(maxConcurrency);
+            mPool.setMaximumPoolSize(maxConcurrency);
+        }
+    }
+
+    void setMetrics(PagingMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Start fetching the page at {@code index} unless it's being fetched
+     */
+    synchronized void fetch(int index) {
+        fetch(index, false);
+    }
+
+    /**
+     * @param background if true, the pages after this page could be handed out before it's fetched
+     */
+    synchronized void fetch(final int index, boolean background) {
+        final PagingMetrics metrics = mMetrics;
+        if (mFetches.containsKey(index)) {
+            if (PagingDebug.DEBUG) Log.d(TAG, "fetch() page " + index + " is being fetched");
+            if (metrics != null) {
+                metrics.onLoadDropped(index, PagingMetrics.DROP_DUPLICATE);
+            }
+            return;
+        }
+        if (PagingDebug.DEBUG) Log.d(TAG, "fetch() called with " + "index = [" + index + "]");
+        final long queuedTime;
+        if (metrics != null) {
+            metrics.onLoadStarted(index);
+            queuedTime = SystemClock.uptimeMillis();
+        } else {
+            queuedTime = 0;
+        }
+        final CancellationToken token = new CancellationToken();
+        FutureTask<P> task = new FutureTask<P>(new Callable<P>() {
+            @Override
+            public P call() throws Exception {
+                if (metrics == null) {
+                    return mSource.newPage(index, token);
+                }
+                long startTime = SystemClock.uptimeMillis();
+                boolean success = false;
+                try {
+                    P page = mSource.newPage(index, token);
+                    success = true;
+                    return page;
+                } finally {
+                    metrics.onLoadFinished(index, startTime - queuedTime, SystemClock.uptimeMillis() - startTime, success);
+                }
+            }
+        }) {
+            @Override
+            protected void done() {
+                if (!isCancelled()) {
+                    mListener.onPageFetched(index);
+                }
+            }
+        };
+        mFetches.put(index, task);
+        mTokens.put(index, token);
+        if (background) {
+            mBackground.add(index);
+        }
+        mExecutor.execute(task);
+    }
+
+    /**
+     * @return true if the page at {@code index} is being fetched or waiting to be handed out
+     */
+    synchronized boolean isFetching(int index) {
+        return mFetches.containsKey(index);
+    }
+
+    /**
+     * @return true if the page at {@code index} is being fetched
+     */
+    synchronized boolean isLoading(int index) {
+        Future<P> future = mFetches.get(index);
+        return future != null && !future.isDone();
+    }
+
+    /**
+     * @return true if the page at {@code index} is being fetched and would be handed out first, that's no page
+     * of a lower index is waiting to be handed out, except the ones fetched in background
+     */
+    synchronized boolean isNext(int index) {
+        if (!mFetches.containsKey(index)) {
+            return false;
+        }
+        for (Integer lower : mFetches.headMap(index, false).keySet()) {
+            if (!mBackground.contains(lower)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized boolean isIdle() {
+        return mFetches.isEmpty();
+    }
+
+    /**
+     * Hand out the fetched pages in the order of index, stopping at the first page still being fetched
+     * unless it's fetched in background. Pages that failed to be fetched are skipped.
+     *
+     * @param fetched the list to add the fetched pages to, in ascending order of index
+     * @param failed  the map to put the indices of the pages failed to be fetched and the exceptions thrown to,
+     *                in ascending order of index, canceled pages excluded
+     * @return true if any page has finished fetching, successfully or not
+     */
+    synchronized boolean takeFetched(List<P> fetched, Map<Integer, Throwable> failed) {
+        boolean finished = false;
+        Iterator<Map.Entry<Integer, Future<P>>> iterator = mFetches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, Future<P>> entry = iterator.next();
+            Future<P> future = entry.getValue();
+            if (!future.isDone()) {
+                if (mBackground.contains(entry.getKey())) {
+                    continue;
+                }
+                break;
+            }
+            iterator.remove();
+            mBackground.remove(entry.getKey());
+            mTokens.remove(entry.getKey());
+            finished = true;
+            try {
+                fetched.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof CancellationException) {
+                    // the page has given up by itself after being canceled
+                    if (PagingDebug.DEBUG) Log.d(TAG, "takeFetched() page " + entry.getKey() + " cancelled");
+                    continue;
+                }
+                if (PagingDebug.DEBUG) Log.e(TAG, "takeFetched() page " + entry.getKey() + " not loaded", e.getCause());
+                failed.put(entry.getKey(), e.getCause());
+            } catch (InterruptedException | CancellationException e) {
+                if (PagingDebug.DEBUG) Log.d(TAG, "takeFetched() page " + entry.getKey() + " cancelled");
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * Cancel fetching all pages whose index is greater than {@code index}
+     */
+    synchronized void cancelAfter(int index) {
+        cancel(mFetches.tailMap(index, false));
+    }
+
+    synchronized void cancelAll() {
+        cancel(mFetches);
+    }
+
+    private void cancel(Map<Integer, Future<P>> fetches) {
+        PagingMetrics metrics = mMetrics;
+        final List<Runnable> listeners = new ArrayList<>();
+        for (Map.Entry<Integer, Future<P>> entry : fetches.entrySet()) {
+            if (PagingDebug.DEBUG) Log.d(TAG, "cancel() page " + entry.getKey());
+            if (metrics != null && !entry.getValue().isDone()) {
+                metrics.onLoadDropped(entry.getKey(), PagingMetrics.DROP_CANCELED);
+            }
+            // the token is marked before the thread is interrupted, so the interrupted page is known as canceled
+            CancellationToken token = mTokens.remove(entry.getKey());
+            Runnable listener = token == null ? null : token.cancel();
+            if (listener != null) {
+                listeners.add(listener);
+            }
+            entry.getValue().cancel(true);
+            mBackground.remove(entry.getKey());
+        }
+        fetches.clear();
+        if (!listeners.isEmpty()) {
+            CANCEL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Runnable listener : listeners) {
+                        try {
+                            listener.run();
+                        } catch (RuntimeException e) {
+                            if (PagingDebug.DEBUG) Log.e(TAG, "cancel() listener failed", e);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    interface Source<P> {
+        /**
+         * Called on a worker thread of the fetcher to get the page at {@code index}
+         *
+         * @param token canceled when the fetch is canceled
+         */
+        P newPage(int index, CancellationToken token) throws DataNotLoadedException;
+    }
+
+    interface Listener {
+        /**
+         * Called on a worker thread of the fetcher when fetching the page at {@code index} has finished,
+         * either successfully or not
+         */
+        void onPageFetched(int index);
+    }
+}
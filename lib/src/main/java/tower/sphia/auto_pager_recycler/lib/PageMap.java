@@ -0,0 +1,509 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An immutable container of loaded pages, sorted by {@link Page#index()}.
+ * <p>
+ * Every modification returns a new instance which shares all unchanged nodes with the old one
+ * (a persistent AVL tree), so adding a page costs O(log n) instead of copying all loaded pages.
+ * A new instance is also what {@link android.support.v4.content.Loader} needs to deliver a result,
+ * because LoaderManager compares the old and the new data by reference.
+ * <p>
+ * Instances never change after creation, so they could be safely shared between the loading
+ * thread and the UI thread.
+ * <p>
+ * Page indices are kept as primitive keys, so neither lookups nor iteration box them. A
+ * {@code TreeMap<Integer, P>} of existing code could be converted with {@link #fromMap(SortedMap)}, and back
+ * with {@link #toSortedMap()}.
+ *
+ * @param <P> the type of page
+ */
+public final class PageMap<P extends Page<?>> implements Iterable<P> {
+    private static final AtomicLong sVersion = new AtomicLong();
+    private static final int[] NO_FAILED = new int[0];
+    private final Node<P> mRoot;
+    private final int mSize;
+    /**
+     * The version of the pages of this instance, unique except that snapshots share the version of the
+     * instance they are taken from
+     */
+    private final long mVersion;
+    /**
+     * The version of the instance this one is derived from, or -1
+     */
+    private final long mBaseVersion;
+    /**
+     * Whether this instance is derived by adding a page after the last page of the base instance
+     */
+    private final boolean mAppended;
+    /**
+     * Whether this instance is derived by replacing the last page of the base instance with a page
+     * which has more items, see {@link #grow(Page)}
+     */
+    private final boolean mGrown;
+    /**
+     * The indices of the pages given up after failing to load, in ascending order
+     */
+    private final int[] mFailed;
+    /**
+     * The index of the page holding only the items parsed so far, or 0
+     */
+    private final int mPartial;
+
+    private PageMap(Node<P> root, int size, long baseVersion, boolean appended, int[] failed, int partial) {
+        this(root, size, baseVersion, appended, false, failed, partial);
+    }
+
+    private PageMap(Node<P> root, int size, long baseVersion, boolean appended, boolean grown, int[] failed,
+                    int partial) {
+        this(root, size, sVersion.incrementAndGet(), baseVersion, appended, grown, failed, partial);
+    }
+
+    private PageMap(Node<P> root, int size, long version, long baseVersion, boolean appended, boolean grown,
+                    int[] failed, int partial) {
+        mRoot = root;
+        mSize = size;
+        mVersion = version;
+        mBaseVersion = baseVersion;
+        mAppended = appended;
+        mGrown = grown;
+        mFailed = failed;
+        mPartial = partial;
+    }
+
+    public static <P extends Page<?>> PageMap<P> empty() {
+        return new PageMap<>(null, 0, -1, false, NO_FAILED, 0);
+    }
+
+    /**
+     * Convert a map of pages keyed by their indices, e.g. a {@code TreeMap<Integer, P>}, in O(n)
+     *
+     * @throws IllegalArgumentException if a page is null or its key isn't its index
+     */
+    public static <P extends Page<?>> PageMap<P> fromMap(SortedMap<Integer, ? extends P> pages) {
+        @SuppressWarnings("unchecked")
+        P[] sorted = (P[]) new Page<?>[pages.size()];
+        int i = 0;
+        for (Map.Entry<Integer, ? extends P> entry : pages.entrySet()) {
+            P page = entry.getValue();
+            if (page == null || page.index() != entry.getKey()) {
+                throw new IllegalArgumentException("page of key " + entry.getKey() + " doesn't match its key");
+            }
+            sorted[i++] = page;
+        }
+        return new PageMap<>(build(sorted, 0, sorted.length), sorted.length, -1, false, NO_FAILED, 0);
+    }
+
+    /**
+     * Copy the pages into a {@code TreeMap<Integer, P>} for existing code reading the results of
+     * {@link AutoPagerLoader} as a map, in O(n), so it shouldn't be called on every load
+     */
+    public SortedMap<Integer, P> toSortedMap() {
+        SortedMap<Integer, P> map = new TreeMap<>();
+        for (P page : this) {
+            map.put(page.index(), page);
+        }
+        return map;
+    }
+
+    /**
+     * @return a balanced tree of the pages from {@code from} inclusive to {@code to} exclusive, sorted by index
+     */
+    private static <P extends Page<?>> Node<P> build(P[] pages, int from, int to) {
+        if (from >= to) {
+            return null;
+        }
+        int mid = (from + to) >>> 1;
+        return new Node<>(pages[mid].index(), pages[mid], build(pages, from, mid), build(pages, mid + 1, to));
+    }
+
+    /**
+     * @param page the page to add, not null
+     * @return a new instance containing all pages of this instance plus {@code page},
+     * replacing the page of the same index if there is one
+     */
+    public PageMap<P> put(P page) {
+        return put(page, false);
+    }
+
+    /**
+     * @param partial true if {@code page} holds only the items parsed so far, see {@link #isPartial(int)}
+     */
+    PageMap<P> put(P page, boolean partial) {
+        int index = page.index();
+        boolean replacing = get(index) != null;
+        boolean appended = !replacing && (mRoot == null || index > last().index());
+        return new PageMap<>(insert(mRoot, index, page), replacing ? mSize : mSize + 1, mVersion, appended,
+                removeFailed(index), partialAfter(index, partial));
+    }
+
+    /**
+     * @return the partial page after replacing the page at {@code index}
+     */
+    private int partialAfter(int index, boolean partial) {
+        if (partial) {
+            return index;
+        }
+        return index == mPartial ? 0 : mPartial;
+    }
+
+    /**
+     * @return a new instance containing all pages of this instance except the page at {@code index},
+     * or this instance if there is no such page
+     */
+    public PageMap<P> remove(int index) {
+        if (get(index) == null) {
+            return this;
+        }
+        return new PageMap<>(delete(mRoot, index), mSize - 1, mVersion, false, mFailed, partialAfter(index, false));
+    }
+
+    /**
+     * @return a new instance with the same pages, which is needed when a load should be delivered
+     * without any change. It keeps the version of this instance, so a page appended to the snapshot is
+     * still an append of this instance, see {@link #isAppendOf(PageMap)}.
+     */
+    public PageMap<P> snapshot() {
+        return new PageMap<>(mRoot, mSize, mVersion, mBaseVersion, mAppended, mGrown, mFailed, mPartial);
+    }
+
+    /**
+     * @param page a page of the same index as the last page, whose items start with all items of the last page,
+     *             e.g. the rest of a page being streamed
+     * @param partial true if {@code page} still holds only the items parsed so far
+     * @return a new instance with the last page replaced by {@code page}
+     */
+    PageMap<P> grow(P page, boolean partial) {
+        if (mRoot == null || page.index() != last().index()) {
+            throw new IllegalArgumentException("page " + page.index() + " is not the last page");
+        }
+        return new PageMap<>(insert(mRoot, page.index(), page), mSize, mVersion, false, true,
+                removeFailed(page.index()), partialAfter(page.index(), partial));
+    }
+
+    /**
+     * @return a new instance with the same pages, marking the page at {@code index} as failed until it's put
+     */
+    PageMap<P> fail(int index) {
+        if (isFailed(index)) {
+            return snapshot();
+        }
+        int[] failed = Arrays.copyOf(mFailed, mFailed.length + 1);
+        failed[mFailed.length] = index;
+        Arrays.sort(failed);
+        return new PageMap<>(mRoot, mSize, mVersion, false, failed, mPartial);
+    }
+
+    private int[] removeFailed(int index) {
+        int i = Arrays.binarySearch(mFailed, index);
+        if (i < 0) {
+            return mFailed;
+        }
+        int[] failed = new int[mFailed.length - 1];
+        System.arraycopy(mFailed, 0, failed, 0, i);
+        System.arraycopy(mFailed, i + 1, failed, i, failed.length - i);
+        return failed;
+    }
+
+    /**
+     * @return true if the page at {@code index} has been given up after failing to load, see {@link RetryPolicy}
+     */
+    public boolean isFailed(int index) {
+        return Arrays.binarySearch(mFailed, index) >= 0;
+    }
+
+    /**
+     * @return the indices of the pages given up after failing to load, in ascending order
+     */
+    public int[] getFailedPages() {
+        return mFailed.clone();
+    }
+
+    /**
+     * @return true if the page at {@code index} holds only the items parsed so far, and grows until it's
+     * fully loaded, see {@link AutoPagerLoader#publishPartialPage(Page)}
+     */
+    public boolean isPartial(int index) {
+        return index != 0 && index == mPartial;
+    }
+
+    /**
+     * @return true if this instance is {@code base} plus a page after its last page
+     */
+    public boolean isAppendOf(PageMap<P> base) {
+        return base != null && mAppended && mBaseVersion == base.mVersion;
+    }
+
+    /**
+     * @return true if this instance holds the same pages as {@code other}, e.g. it only differs in the failed pages
+     */
+    public boolean hasSamePages(PageMap<?> other) {
+        return other != null && mRoot == other.mRoot && mSize == other.mSize;
+    }
+
+    /**
+     * @return true if this instance is {@code base} with more items at the end of its last page
+     */
+    public boolean isGrowthOf(PageMap<P> base) {
+        return base != null && mGrown && mBaseVersion == base.mVersion;
+    }
+
+    public P get(int index) {
+        Node<P> node = mRoot;
+        while (node != null) {
+            if (index < node.key) {
+                node = node.left;
+            } else if (index > node.key) {
+                node = node.right;
+            } else {
+                return node.page;
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(int index) {
+        return get(index) != null;
+    }
+
+    /**
+     * @return the page with the lowest index
+     */
+    public P first() {
+        if (mRoot == null) {
+            throw new NoSuchElementException();
+        }
+        Node<P> node = mRoot;
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node.page;
+    }
+
+    /**
+     * @return the page with the highest index
+     */
+    public P last() {
+        if (mRoot == null) {
+            throw new NoSuchElementException();
+        }
+        Node<P> node = mRoot;
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.page;
+    }
+
+    /**
+     * @return the page with the lowest index greater than or equal to {@code index}, or null if there is none
+     */
+    public P ceiling(int index) {
+        Node<P> node = mRoot;
+        P ceiling = null;
+        while (node != null) {
+            if (index < node.key) {
+                ceiling = node.page;
+                node = node.left;
+            } else if (index > node.key) {
+                node = node.right;
+            } else {
+                return node.page;
+            }
+        }
+        return ceiling;
+    }
+
+    /**
+     * @return the page with the highest index less than or equal to {@code index}, or null if there is none
+     */
+    public P floor(int index) {
+        Node<P> node = mRoot;
+        P floor = null;
+        while (node != null) {
+            if (index < node.key) {
+                node = node.left;
+            } else if (index > node.key) {
+                floor = node.page;
+                node = node.right;
+            } else {
+                return node.page;
+            }
+        }
+        return floor;
+    }
+
+    /**
+     * @return true if any page between the first and the last page is missing
+     */
+    public boolean hasGaps() {
+        return mSize > 1 && last().index() - first().index() + 1 != mSize;
+    }
+
+    /**
+     * @return the lowest index greater than or equal to {@code index} whose page is missing, in O(log n + k) for
+     * k contiguous pages from {@code index} on
+     */
+    public int nextMissing(int index) {
+        Iterator<P> iterator = new PageIterator<>(mRoot, index);
+        while (iterator.hasNext() && iterator.next().index() == index) {
+            index++;
+        }
+        return index;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * @return an iterator over the pages in ascending order of index
+     */
+    @Override
+    public Iterator<P> iterator() {
+        return new PageIterator<>(mRoot);
+    }
+
+    private static <P> Node<P> insert(Node<P> node, int key, P page) {
+        if (node == null) {
+            return new Node<>(key, page, null, null);
+        }
+        if (key < node.key) {
+            return balance(node.key, node.page, insert(node.left, key, page), node.right);
+        } else if (key > node.key) {
+            return balance(node.key, node.page, node.left, insert(node.right, key, page));
+        } else {
+            return new Node<>(key, page, node.left, node.right);
+        }
+    }
+
+    private static <P> Node<P> delete(Node<P> node, int key) {
+        if (key < node.key) {
+            return balance(node.key, node.page, delete(node.left, key), node.right);
+        } else if (key > node.key) {
+            return balance(node.key, node.page, node.left, delete(node.right, key));
+        }
+        if (node.left == null) {
+            return node.right;
+        } else if (node.right == null) {
+            return node.left;
+        }
+        Node<P> min = node.right;
+        while (min.left != null) {
+            min = min.left;
+        }
+        return balance(min.key, min.page, node.left, delete(node.right, min.key));
+    }
+
+    private static <P> Node<P> balance(int key, P page, Node<P> left, Node<P> right) {
+        int diff = height(left) - height(right);
+        if (diff > 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<>(left.key, left.page, left.left, new Node<>(key, page, left.right, right));
+            } else {
+                Node<P> pivot = left.right;
+                return new Node<>(pivot.key, pivot.page,
+                        new Node<>(left.key, left.page, left.left, pivot.left),
+                        new Node<>(key, page, pivot.right, right));
+            }
+        } else if (diff < -1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<>(right.key, right.page, new Node<>(key, page, left, right.left), right.right);
+            } else {
+                Node<P> pivot = right.left;
+                return new Node<>(pivot.key, pivot.page,
+                        new Node<>(key, page, left, pivot.left),
+                        new Node<>(right.key, right.page, pivot.right, right.right));
+            }
+        }
+        return new Node<>(key, page, left, right);
+    }
+
+    /**
+     * @return the height of the tree, which bounds the number of nodes copied by {@link #put(Page)}
+     */
+    int height() {
+        return height(mRoot);
+    }
+
+    private static int height(Node<?> node) {
+        return node == null ? 0 : node.height;
+    }
+
+    private static class Node<P> {
+        final int key;
+        final P page;
+        final Node<P> left;
+        final Node<P> right;
+        final int height;
+
+        Node(int key, P page, Node<P> left, Node<P> right) {
+            this.key = key;
+            this.page = page;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+        }
+    }
+
+    private static class PageIterator<P> implements Iterator<P> {
+        private final ArrayDeque<Node<P>> mStack = new ArrayDeque<>();
+
+        PageIterator(Node<P> root) {
+            pushLeft(root);
+        }
+
+        /**
+         * Iterate from the node of the lowest key greater than or equal to {@code fromKey}
+         */
+        PageIterator(Node<P> root, int fromKey) {
+            Node<P> node = root;
+            while (node != null) {
+                if (fromKey <= node.key) {
+                    mStack.push(node);
+                    node = node.left;
+                } else {
+                    node = node.right;
+                }
+            }
+        }
+
+        private void pushLeft(Node<P> node) {
+            while (node != null) {
+                mStack.push(node);
+                node = node.left;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !mStack.isEmpty();
+        }
+
+        @Override
+        public P next() {
+            if (mStack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<P> node = mStack.pop();
+            pushLeft(node.right);
+            return node.page;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
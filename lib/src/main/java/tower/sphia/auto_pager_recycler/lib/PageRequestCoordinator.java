@@ -0,0 +1,216 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Stands in front of a {@link AutoPagerManager.LoadPageMethod} to coalesce the page requests of
+ * {@link AutoPagerManager} made on the main thread.
+ * <p>
+ * The requests made while handling one message (a scroll event, a click etc.) are queued and passed on
+ * together in the next message, the ones the user is waiting for first, and consecutive pages needed to
+ * fill the screen as one batch. A page is passed on once until it's delivered, loaded or failed, so all
+ * requesters share the result of one load. A page whose load is dropped without being delivered, e.g. pages
+ * after the last page, is forgotten, and a pending page expires after {@link #PENDING_TIMEOUT_MS} in case its
+ * load has been dropped silently, so it's never stuck.
+ * <p>
+ * The priority only orders the requests passed on together. The pages are fetched in the order they are
+ * passed on, so a page the user is waiting for still waits behind the pages already being fetched.
+ */
+class PageRequestCoordinator {
+    /**
+     * A page the user is waiting for, e.g. a visible divider or a clicked one
+     */
+    static final int PRIORITY_VISIBLE = 3;
+    /**
+     * A page needed to fill the screen
+     */
+    static final int PRIORITY_FILL = 2;
+    /**
+     * A page requested before it's needed, e.g. when scrolling into the auto pager zone
+     */
+    static final int PRIORITY_PREFETCH = 1;
+    /**
+     * The time after which a pending page could be passed on again
+     */
+    static final long PENDING_TIMEOUT_MS = 30 * 1000;
+    private static final String TAG = "PageRequestCoordinator";
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final AutoPagerManager.BatchLoadPageMethod mTarget;
+    /**
+     * The queued requests, page to priority
+     */
+    private final Map<Integer, Integer> mQueued = new TreeMap<>();
+    /**
+     * The pages passed on but not delivered yet, page to the time passed on
+     */
+    private final Map<Integer, Long> mPending = new HashMap<>();
+    private final long mPendingTimeout;
+    /**
+     * The number of pages delivered last
+     */
+    private int mDeliveredSize;
+    /**
+     * Whether the first page has been delivered, so requesting it again reloads it
+     */
+    private boolean mFirstPageDelivered;
+    private PagingMetrics mMetrics;
+    private boolean mDispatchPosted;
+    private final Runnable mDispatch = new Runnable() {
+        @Override
+        public void run() {
+            mDispatchPosted = false;
+            dispatch();
+        }
+    };
+
+    /**
+     * @param target the method the coalesced requests are passed on to
+     */
+    PageRequestCoordinator(AutoPagerManager.BatchLoadPageMethod target) {
+        this(target, PENDING_TIMEOUT_MS);
+    }
+
+    /**
+     * @param pendingTimeout the time after which a pending page could be passed on again
+     */
+    PageRequestCoordinator(AutoPagerManager.BatchLoadPageMethod target, long pendingTimeout) {
+        mTarget = target;
+        mPendingTimeout = pendingTimeout;
+    }
+
+    void setMetrics(PagingMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Request the page at {@code page}, coalesced with the requests for the same page queued or pending
+     *
+     * @param priority one of {@link #PRIORITY_VISIBLE}, {@link #PRIORITY_FILL} and {@link #PRIORITY_PREFETCH}
+     */
+    void request(int page, int priority) {
+        Long passedOn = mPending.get(page);
+        if (passedOn != null) {
+            if (SystemClock.uptimeMillis() - passedOn < mPendingTimeout) {
+                if (PagingDebug.DEBUG) Log.d(TAG, "request() page " + page + " is pending");
+                if (mMetrics != null) {
+                    mMetrics.onLoadDropped(page, PagingMetrics.DROP_DUPLICATE);
+                }
+                return;
+            }
+            if (PagingDebug.DEBUG) Log.d(TAG, "request() page " + page + " has expired");
+            mPending.remove(page);
+        }
+        Integer queued = mQueued.get(page);
+        if (queued != null && queued >= priority) {
+            if (mMetrics != null) {
+                mMetrics.onLoadDropped(page, PagingMetrics.DROP_DUPLICATE);
+            }
+            return;
+        }
+        mQueued.put(page, priority);
+        if (!mDispatchPosted) {
+            mDispatchPosted = true;
+            mHandler.post(mDispatch);
+        }
+    }
+
+    /**
+     * Called when pages are delivered, after which the delivered pages could be requested again, e.g. to
+     * retry a failed page or reload a loaded one. The pages still being loaded stay pending, unless some
+     * pages have been dropped, e.g. the loader has been reset. The pages after the last page are never loaded,
+     * so they are forgotten as well.
+     */
+    void onPagesDelivered(PageMap<?> pages) {
+        if (pages.size() < mDeliveredSize || pages.isEmpty() && pages.getFailedPages().length == 0) {
+            mPending.clear();
+        } else {
+            int last = pages.isEmpty() ? Integer.MAX_VALUE : pages.last().last();
+            Iterator<Integer> iterator = mPending.keySet().iterator();
+            while (iterator.hasNext()) {
+                int page = iterator.next();
+                if (pages.containsKey(page) || pages.isFailed(page) || page > last) {
+                    iterator.remove();
+                }
+            }
+        }
+        mDeliveredSize = pages.size();
+        mFirstPageDelivered = pages.containsKey(1);
+    }
+
+    /**
+     * Forget the pending pages from {@code firstPage} on whose load has been dropped, so they could be
+     * requested again
+     */
+    void onLoadDropped(int firstPage, int count) {
+        for (int i = firstPage; i < firstPage + count; i++) {
+            if (mPending.remove(i) != null && mMetrics != null) {
+                mMetrics.onLoadDropped(i, PagingMetrics.DROP_CANCELED);
+            }
+        }
+    }
+
+    /**
+     * Drop the queued requests and forget the pending ones, which have been canceled
+     */
+    void cancel() {
+        mQueued.clear();
+        mPending.clear();
+        mDeliveredSize = 0;
+        mHandler.removeCallbacks(mDispatch);
+        mDispatchPosted = false;
+    }
+
+    /**
+     * Pass the queued requests on in the order of priority, then of page index.
+     * Consecutive pages of {@link #PRIORITY_FILL} are passed on as one batch. Reloading the first page cancels
+     * loading all other pages, so they are no longer pending.
+     */
+    void dispatch() {
+        if (mFirstPageDelivered && mQueued.containsKey(1)) {
+            mPending.clear();
+        }
+        List<int[]> requests = new ArrayList<>(mQueued.size());
+        for (Map.Entry<Integer, Integer> entry : mQueued.entrySet()) {
+            requests.add(new int[]{entry.getKey(), entry.getValue()});
+        }
+        mQueued.clear();
+        // stable, so pages of the same priority stay in ascending order
+        Collections.sort(requests, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] lhs, int[] rhs) {
+                return rhs[1] - lhs[1];
+            }
+        });
+        long now = SystemClock.uptimeMillis();
+        for (int i = 0; i < requests.size(); i++) {
+            int page = requests.get(i)[0];
+            int priority = requests.get(i)[1];
+            mPending.put(page, now);
+            int count = 1;
+            while (priority == PRIORITY_FILL && i + 1 < requests.size() && requests.get(i + 1)[1] == PRIORITY_FILL
+                    && requests.get(i + 1)[0] == page + count) {
+                mPending.put(page + count, now);
+                count++;
+                i++;
+            }
+            if (PagingDebug.DEBUG) Log.d(TAG, "dispatch() page " + page + " count " + count + " priority " + priority);
+            if (count == 1) {
+                mTarget.loadPage(page);
+            } else {
+                mTarget.loadPages(page, count);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Converts pages to and from bytes for the disk tier of a {@link PageCache}.
+ *
+ * @param <P> the type of page
+ */
+public interface PageSerializer<P extends Page<?>> {
+
+    void write(P page, OutputStream out) throws IOException;
+
+    P read(InputStream in) throws IOException;
+}
@@ -0,0 +1,12 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+/**
+ * The switch of the debug logs of the library, see {@link AutoPagerManager#enalbleDebug(boolean)}. It's kept
+ * apart from {@link AutoPagerManager} so the paging core doesn't depend on the classes of the UI.
+ */
+final class PagingDebug {
+    static boolean DEBUG = false;
+
+    private PagingDebug() {
+    }
+}
@@ -0,0 +1,570 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maintains the loaded pages of {@link AutoPagerLoader} and {@link AutoPagerSource}: fetches the requested
+ * pages with the prefetch window, the cache and the stale pages to revalidate, and merges the fetched pages
+ * in order, evicting pages in the windowed mode. It's independent of how the merge is scheduled and how the
+ * result is delivered.
+ */
+class PagingEngine<P extends Page<?>> {
+    private static final String TAG = "PagingEngine";
+    /**
+     * Schedules the retries of all engines, which only start fetching so one thread is enough
+     */
+    private static final ScheduledExecutorService RETRY_SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "AutoPager retry");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    private final PageFetcher.Source<P> mSource;
+    private final PageFetcher<P> mFetcher;
+    private final PageFetcher.Listener mListener;
+    /**
+     * All pages merged so far
+     */
+    private PageMap<P> mPages = PageMap.empty();
+    /**
+     * The number of pages fetched concurrently from the requested page on
+     */
+    private int mPrefetchWindow = 1;
+    /**
+     * The max number of pages kept around the requested page, 0 for no limit
+     */
+    private int mMaxPages = 0;
+    /**
+     * The pages evicted since they were last taken, to be released after the next delivery
+     */
+    private PageMap<P> mEvicted = PageMap.empty();
+    private PageCache<P> mPageCache;
+    /**
+     * The pages served stale from the cache, to be revalidated
+     */
+    private final Set<Integer> mStalePages = new HashSet<>();
+    /**
+     * The pages which must be fetched from the source even if they are cached
+     */
+    private final Set<Integer> mUncachedPages = new HashSet<>();
+    /**
+     * Whether the first page is being reloaded, which drops all other pages
+     */
+    private boolean mReloading;
+    /**
+     * The latest requested page, 1 by default
+     */
+    private int mTargetPage = 1;
+    /**
+     * The last page of the source known before any page is loaded, e.g. from a restored state
+     */
+    private int mKnownLastPage = Integer.MAX_VALUE;
+    /**
+     * The first and the last page of the batch being loaded, whose pages are merged together,
+     * mBatchLast is 0 if there is none
+     */
+    private int mBatchFirst;
+    private int mBatchLast;
+    /**
+     * The index of the partial page merged while the rest of it is being fetched, or 0 if there is none
+     */
+    private int mPartialIndex;
+    private RetryPolicy mRetryPolicy;
+    private PagingMetrics mMetrics;
+    /**
+     * The number of failed retries of the pages being retried, page to count
+     */
+    private final Map<Integer, Integer> mRetryAttempts = new HashMap<>();
+    /**
+     * The scheduled retries, page to retry
+     */
+    private final Map<Integer, ScheduledFuture<?>> mRetries = new HashMap<>();
+    /**
+     * The failures since they were last taken, to be reported after the next delivery
+     */
+    private List<Failure> mFailures = new ArrayList<>();
+
+    /**
+     * @param source   gets the pages on the fetching threads
+     * @param listener called on the fetching threads when a page has finished fetching, so {@link #merge()}
+     *                 should be called
+     * @param executor the executor fetching the pages, or null for a thread pool bounded by the prefetch window
+     */
+    PagingEngine(PageFetcher.Source<P> source, PageFetcher.Listener listener, Executor executor) {
+        mSource = source;
+        mListener = listener;
+        PageFetcher.Source<P> cachedSource = new PageFetcher.Source<P>() {
+            @Override
+            public P newPage(int index, CancellationToken token) throws DataNotLoadedException {
+                return fetchPage(index, token);
+            }
+        };
+        if (executor == null) {
+            mFetcher = new PageFetcher<>(cachedSource, listener, mPrefetchWindow);
+        } else {
+            mFetcher = new PageFetcher<>(cachedSource, listener, executor);
+        }
+    }
+
+    /**
+     * Called on a worker thread of the fetcher to get the page from the cache if possible, or
+     * from the source
+     */
+    private P fetchPage(int index, CancellationToken token) throws DataNotLoadedException {
+        PageCache<P> cache;
+        boolean uncached;
+        RetryPolicy retryPolicy;
+        synchronized (this) {
+            cache = mPageCache;
+            uncached = mUncachedPages.remove(index);
+            retryPolicy = mRetryPolicy;
+        }
+        if (cache == null) {
+            return newPage(index, token, retryPolicy);
+        }
+        if (!uncached) {
+            PageCache.Entry<P> entry = cache.get(index);
+            if (entry != null) {
+                if (PagingDebug.DEBUG) Log.d(TAG, "fetchPage() page " + index + " cached, fresh " + entry.isFresh());
+                if (!entry.isFresh()) {
+                    synchronized (this) {
+                        mStalePages.add(index);
+                    }
+                }
+                return entry.page;
+            }
+        }
+        P page = newPage(index, token, retryPolicy);
+        cache.put(page);
+        return page;
+    }
+
+    /**
+     * Get the page from the source unless the circuit of the retry policy is open. Every request is reported to
+     * the retry policy as exactly one of loaded, failed or canceled, and a canceled page isn't counted as a
+     * failure of the source.
+     */
+    private P newPage(int index, CancellationToken token, RetryPolicy retryPolicy) throws DataNotLoadedException {
+        if (retryPolicy == null) {
+            return mSource.newPage(index, token);
+        }
+        if (!retryPolicy.allowRequest()) {
+            if (PagingDebug.DEBUG) Log.d(TAG, "newPage() page " + index + " failed, circuit open");
+            throw new RetryPolicy.CircuitOpenException();
+        }
+        boolean loaded = false;
+        try {
+            P page = mSource.newPage(index, token);
+            loaded = true;
+            return page;
+        } finally {
+            if (loaded) {
+                retryPolicy.onSuccess();
+            } else if (token.isCanceled()) {
+                retryPolicy.onCanceled();
+            } else {
+                retryPolicy.onFailure();
+            }
+        }
+    }
+
+    synchronized void setPageCache(PageCache<P> pageCache) {
+        mPageCache = pageCache;
+    }
+
+    synchronized void setInitialPage(int page) {
+        if (page <= 0) {
+            throw new IllegalArgumentException();
+        }
+        if (mPages.isEmpty() && mFetcher.isIdle()) {
+            mTargetPage = page;
+        }
+    }
+
+    synchronized void setMetrics(PagingMetrics metrics) {
+        mMetrics = metrics;
+        mFetcher.setMetrics(metrics);
+    }
+
+    /**
+     * @param retryPolicy the policy retrying the failed pages, or null to give up failed pages at once
+     */
+    synchronized void setRetryPolicy(RetryPolicy retryPolicy) {
+        mRetryPolicy = retryPolicy;
+    }
+
+    synchronized void setPrefetchWindow(int prefetchWindow) {
+        if (prefetchWindow <= 0) {
+            throw new IllegalArgumentException();
+        }
+        mPrefetchWindow = prefetchWindow;
+        mFetcher.setMaxConcurrency(prefetchWindow);
+    }
+
+    synchronized void setMaxPages(int maxPages) {
+        if (maxPages < 0) {
+            throw new IllegalArgumentException();
+        }
+        mMaxPages = maxPages;
+    }
+
+    synchronized PageMap<P> getPages() {
+        return mPages;
+    }
+
+    /**
+     * Load the initial page if no page is loaded or being loaded
+     */
+    synchronized void loadIfEmpty() {
+        if (mPages.isEmpty() && mFetcher.isIdle()) {
+            load(mTargetPage);
+        }
+    }
+
+    /**
+     * Merge the fetched pages in order, then evict the pages out of the window and revalidate the stale pages.
+     *
+     * @return a new instance of the pages if any page has finished fetching, even if it failed, so the
+     * client could request pages again; otherwise the same instance as before
+     */
+    synchronized PageMap<P> merge() {
+        if (mBatchLast != 0) {
+            for (int i = mBatchFirst; i <= mBatchLast; i++) {
+                if (mFetcher.isLoading(i)) {
+                    // deliver the batch at once
+                    return mPages;
+                }
+            }
+            mBatchLast = 0;
+        }
+        // PageMap shares all unchanged pages with the old data, so nothing is copied.
+        List<P> fetched = new ArrayList<>();
+        Map<Integer, Throwable> failed = new LinkedHashMap<>();
+        boolean finished = mFetcher.takeFetched(fetched, failed);
+        for (P page : fetched) {
+            mRetryAttempts.remove(page.index());
+            if (page.index() == 1 && mReloading) {
+                mReloading = false;
+                mPages = PageMap.empty();
+                if (PagingDebug.DEBUG) Log.d(TAG, "RELOADING");
+            }
+            if (page.index() == mPartialIndex) {
+                // the rest of the partial page, which may have been evicted meanwhile
+                mPages = isLastPage(page.index()) ? mPages.grow(page, false) : mPages.put(page);
+                mPartialIndex = 0;
+            } else {
+                mPages = mPages.put(page);
+            }
+            if (PagingDebug.DEBUG) Log.d(TAG, "page " + page.index() + " loaded");
+        }
+        if (mPartialIndex != 0 && !mFetcher.isFetching(mPartialIndex)) {
+            // the partial page has failed or been canceled, it's not loaded
+            mPages = mPages.remove(mPartialIndex);
+            mPartialIndex = 0;
+        }
+        if (finished && fetched.isEmpty()) {
+            // only failed pages, still deliver the result so the client could request pages again
+            mPages = mPages.snapshot();
+        }
+        for (Map.Entry<Integer, Throwable> entry : failed.entrySet()) {
+            onPageFailed(entry.getKey(), entry.getValue());
+        }
+        if (!mPages.isEmpty()) {
+            // pages after the last page will never be found
+            mFetcher.cancelAfter(mPages.last().last());
+        }
+        evictPages();
+        revalidatePages();
+        return mPages;
+    }
+
+    /**
+     * Schedule a retry of the failed page at {@code index}, or mark it as failed if it's given up.
+     * Failed pages which are still loaded, e.g. failed to be refreshed, are kept as they are.
+     */
+    private void onPageFailed(int index, Throwable cause) {
+        if (mPages.containsKey(index)) {
+            mFailures.add(new Failure(index, cause, false));
+            return;
+        }
+        Integer attempts = mRetryAttempts.get(index);
+        int attempt = attempts == null ? 0 : attempts;
+        long delay = mRetryPolicy == null ? -1 : mRetryPolicy.getRetryDelay(attempt + 1);
+        if (mMetrics != null) {
+            mMetrics.onLoadFailed(index, attempt, delay);
+        }
+        if (delay < 0) {
+            if (PagingDebug.DEBUG) Log.d(TAG, "onPageFailed() page " + index + " given up");
+            mRetryAttempts.remove(index);
+            mPages = mPages.fail(index);
+            mFailures.add(new Failure(index, cause, false));
+            return;
+        }
+        mFailures.add(new Failure(index, cause, true));
+        if (PagingDebug.DEBUG) Log.d(TAG, "onPageFailed() page " + index + " retried in " + delay + "ms");
+        mRetryAttempts.put(index, attempt + 1);
+        final int page = index;
+        mRetries.put(index, RETRY_SCHEDULER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                retry(page);
+            }
+        }, delay, TimeUnit.MILLISECONDS));
+    }
+
+    /**
+     * Fetch the page at {@code index} again unless it has been loaded or requested meanwhile, in background
+     * so the pages after it, which are merged already, aren't held back
+     */
+    private synchronized void retry(int index) {
+        if (mRetries.remove(index) == null || mPages.containsKey(index) || mFetcher.isFetching(index)) {
+            return;
+        }
+        mFetcher.fetch(index, true);
+    }
+
+    private void cancelRetries() {
+        for (ScheduledFuture<?> retry : mRetries.values()) {
+            retry.cancel(false);
+        }
+        mRetries.clear();
+        mRetryAttempts.clear();
+    }
+
+    /**
+     * Called on a fetching thread with the items of the page at {@code page.index()} parsed so far, which is
+     * merged at once if it's the next page after the last page and no page before it is being fetched, so the
+     * items are shown in order. Otherwise it's ignored, and the page is merged when it's fully fetched.
+     *
+     * @param page the partial page, whose items start with all items of the partial pages published before
+     */
+    void publish(P page) {
+        int index = page.index();
+        synchronized (this) {
+            boolean growing = index == mPartialIndex && isLastPage(index);
+            boolean next = growing || mPartialIndex == 0 && (mPages.isEmpty() || isLastPage(index - 1));
+            if (!next || mReloading || (mBatchLast != 0 && index >= mBatchFirst && index <= mBatchLast)
+                    || !mFetcher.isNext(index)) {
+                return;
+            }
+            if (PagingDebug.DEBUG) Log.d(TAG, "publish() partial page " + index);
+            mPages = growing ? mPages.grow(page, true) : mPages.put(page, true);
+            mPartialIndex = index;
+        }
+        mListener.onPageFetched(index);
+    }
+
+    private boolean isLastPage(int index) {
+        return !mPages.isEmpty() && mPages.last().index() == index;
+    }
+
+    /**
+     * @return the pages evicted since the last call, to be released
+     */
+    synchronized PageMap<P> takeEvicted() {
+        PageMap<P> evicted = mEvicted;
+        mEvicted = PageMap.empty();
+        return evicted;
+    }
+
+    /**
+     * @return the pages failed since the last call, in the order they failed, to be reported
+     */
+    synchronized List<Failure> takeFailures() {
+        List<Failure> failures = mFailures;
+        mFailures = new ArrayList<>();
+        return failures;
+    }
+
+    /**
+     * Evict the pages farthest from the target page until at most {@link #mMaxPages} pages are left,
+     * so the remaining pages are always around the target page
+     */
+    private void evictPages() {
+        while (mMaxPages > 0 && mPages.size() > mMaxPages) {
+            P first = mPages.first();
+            P last = mPages.last();
+            P evicted = mTargetPage - first.index() > last.index() - mTargetPage ? first : last;
+            if (PagingDebug.DEBUG) Log.d(TAG, "evictPages() page " + evicted.index() + " evicted");
+            mPages = mPages.remove(evicted.index());
+            mEvicted = mEvicted.put(evicted);
+        }
+    }
+
+    /**
+     * Fetch the pages served stale from the cache again in background
+     */
+    private void revalidatePages() {
+        for (int index : mStalePages) {
+            if (mPages.containsKey(index)) {
+                if (PagingDebug.DEBUG) Log.d(TAG, "revalidatePages() page " + index);
+                mUncachedPages.add(index);
+                mFetcher.fetch(index, true);
+            }
+        }
+        mStalePages.clear();
+    }
+
+    synchronized void load(int page) {
+        if (PagingDebug.DEBUG) {
+            Log.d(TAG, "*******************************");
+            Log.d(TAG, "load() called with " + "page = [" + page + "]");
+        }
+        mTargetPage = page;
+        if (mRetries.containsKey(page)) {
+            // the backoff isn't cut short by the client requesting the page again, e.g. on every scroll
+            if (PagingDebug.DEBUG) Log.d(TAG, "load() page " + page + " is to be retried");
+            if (mMetrics != null) {
+                mMetrics.onLoadDropped(page, PagingMetrics.DROP_DUPLICATE);
+            }
+            return;
+        }
+        if (mPages.containsKey(page)) {
+            // reloading a page always gets it from the source
+            mUncachedPages.add(page);
+        }
+        if (page == 1 && mPages.containsKey(1)) {
+            // all other pages will be dropped after reloading
+            mFetcher.cancelAll();
+            cancelRetries();
+            mReloading = true;
+        }
+        mFetcher.fetch(page);
+        int last = mPages.isEmpty() ? mKnownLastPage : mPages.last().last();
+        for (int i = mPages.nextMissing(page + 1); i < page + mPrefetchWindow && i <= last; i = mPages.nextMissing(i + 1)) {
+            mFetcher.fetch(i);
+        }
+    }
+
+    /**
+     * Load {@code count} pages from {@code firstPage} on, which are merged only when all of them have
+     * finished loading, so they are delivered at once
+     */
+    synchronized void loadPages(int firstPage, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException();
+        }
+        for (int i = firstPage; i < firstPage + count; i++) {
+            load(i);
+        }
+        mBatchFirst = firstPage;
+        mBatchLast = firstPage + count - 1;
+    }
+
+    synchronized void refresh(int pageCount) {
+        if (PagingDebug.DEBUG) Log.d(TAG, "refresh() called with " + "pageCount = [" + pageCount + "]");
+        if (mPages.isEmpty()) {
+            load(mTargetPage);
+            return;
+        }
+        int count = 0;
+        for (P page : mPages) {
+            if (count++ == pageCount) {
+                break;
+            }
+            mUncachedPages.add(page.index());
+            mFetcher.fetch(page.index(), true);
+        }
+    }
+
+    /**
+     * Cancel loading all pages, e.g. when their results will never be shown, while the merged pages are kept.
+     * The pages canceled are requested again by the client if they are still needed.
+     */
+    synchronized void cancel() {
+        if (PagingDebug.DEBUG) Log.d(TAG, "cancel() called");
+        mFetcher.cancelAll();
+        cancelRetries();
+        mReloading = false;
+        mBatchLast = 0;
+        if (mPartialIndex != 0) {
+            // the rest of the partial page will never come
+            mPages = mPages.remove(mPartialIndex);
+            mPartialIndex = 0;
+        }
+    }
+
+    /**
+     * Restore the pages around the anchor saved in a state instead of loading the initial page, unless
+     * pages have been merged, e.g. the loader has survived a configuration change.
+     * The anchor page and the prefetch window after it are loaded if it isn't restored.
+     *
+     * @param pages the restored pages, may be empty
+     * @return true if the state is restored
+     */
+    synchronized boolean restore(List<P> pages, int anchorPage, int lastPage) {
+        if (!mPages.isEmpty()) {
+            return false;
+        }
+        if (PagingDebug.DEBUG) Log.d(TAG, "restore() " + pages.size() + " pages around page " + anchorPage);
+        // the initial page may be loading already
+        mFetcher.cancelAll();
+        cancelRetries();
+        mBatchLast = 0;
+        for (P page : pages) {
+            mPages = mPages.put(page);
+        }
+        if (lastPage > 0) {
+            mKnownLastPage = lastPage;
+        }
+        if (anchorPage > 0) {
+            mTargetPage = anchorPage;
+            if (!mPages.containsKey(anchorPage)) {
+                load(anchorPage);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Cancel all fetches and drop all pages
+     *
+     * @return the pages evicted since they were last taken, to be released
+     */
+    synchronized PageMap<P> reset() {
+        mFetcher.cancelAll();
+        cancelRetries();
+        PageMap<P> evicted = takeEvicted();
+        mPages = PageMap.empty();
+        mReloading = false;
+        mBatchLast = 0;
+        mPartialIndex = 0;
+        mKnownLastPage = Integer.MAX_VALUE;
+        mStalePages.clear();
+        mUncachedPages.clear();
+        mFailures.clear();
+        return evicted;
+    }
+
+    /**
+     * A page failed to load, see {@link AutoPagerManager.OnPageFailedListener}
+     */
+    static class Failure {
+        final int page;
+        final Throwable cause;
+        final boolean willRetry;
+
+        Failure(int page, Throwable cause, boolean willRetry) {
+            this.page = page;
+            this.cause = cause;
+            this.willRetry = willRetry;
+        }
+    }
+}
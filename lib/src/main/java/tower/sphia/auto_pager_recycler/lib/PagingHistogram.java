@@ -0,0 +1,164 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import java.io.PrintWriter;
+
+/**
+ * A {@link PagingMetrics} recording every timing into a histogram of fixed buckets, and counting the
+ * pages loaded, failed, retried and dropped. Recording doesn't allocate, and the result could be printed
+ * with {@link #dump(PrintWriter)}, e.g. from {@code Activity.dump()}.
+ * <p>
+ * It's thread safe, so one instance could be set to the loader and the manager.
+ */
+public class PagingHistogram implements PagingMetrics {
+    public static final int QUEUE = 0;
+    public static final int LOAD = 1;
+    public static final int FIRST_ITEMS = 2;
+    public static final int TRIGGER_TO_FOOTER = 3;
+    public static final int FOOTER_SHOWN = 4;
+    private static final String[] NAMES = {"queue", "load", "first items", "trigger to footer", "footer shown"};
+    /**
+     * The upper bounds in milliseconds of the buckets, the last bucket has no bound
+     */
+    private static final long[] BOUNDS = {10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+    private final long[][] mCounts = new long[NAMES.length][BOUNDS.length + 1];
+    private final long[] mSums = new long[NAMES.length];
+    private final long[] mMaxes = new long[NAMES.length];
+    private int mStarted;
+    private int mLoaded;
+    private int mFailed;
+    private int mRetried;
+    private int mGivenUp;
+    private int mDuplicates;
+    private int mCanceled;
+
+    @Override
+    public synchronized void onLoadStarted(int index) {
+        mStarted++;
+    }
+
+    @Override
+    public synchronized void onLoadFinished(int index, long queueMillis, long loadMillis, boolean success) {
+        if (success) {
+            mLoaded++;
+        } else {
+            mFailed++;
+        }
+        record(QUEUE, queueMillis);
+        record(LOAD, loadMillis);
+    }
+
+    @Override
+    public synchronized void onLoadFailed(int index, int attempt, long retryDelayMillis) {
+        if (retryDelayMillis < 0) {
+            mGivenUp++;
+        } else {
+            mRetried++;
+        }
+    }
+
+    @Override
+    public synchronized void onLoadDropped(int index, int reason) {
+        if (reason == DROP_DUPLICATE) {
+            mDuplicates++;
+        } else {
+            mCanceled++;
+        }
+    }
+
+    @Override
+    public synchronized void onFirstItems(long millis) {
+        record(FIRST_ITEMS, millis);
+    }
+
+    @Override
+    public synchronized void onFooterShown(int index, long sinceTriggerMillis) {
+        record(TRIGGER_TO_FOOTER, sinceTriggerMillis);
+    }
+
+    @Override
+    public synchronized void onFooterHidden(int index, long shownMillis) {
+        record(FOOTER_SHOWN, shownMillis);
+    }
+
+    private void record(int metric, long millis) {
+        int bucket = 0;
+        while (bucket < BOUNDS.length && millis > BOUNDS[bucket]) {
+            bucket++;
+        }
+        mCounts[metric][bucket]++;
+        mSums[metric] += millis;
+        mMaxes[metric] = Math.max(mMaxes[metric], millis);
+    }
+
+    /**
+     * @param metric one of {@link #QUEUE}, {@link #LOAD}, {@link #FIRST_ITEMS}, {@link #TRIGGER_TO_FOOTER}
+     *               and {@link #FOOTER_SHOWN}
+     * @return the number of samples of {@code metric}
+     */
+    public synchronized long getCount(int metric) {
+        long count = 0;
+        for (long c : mCounts[metric]) {
+            count += c;
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket containing the percentile of {@code metric}, or the max sample
+     * for the last bucket, or 0 if there is no sample
+     */
+    public synchronized long getPercentile(int metric, float percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException();
+        }
+        long count = getCount(metric);
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int bucket = 0; bucket < BOUNDS.length; bucket++) {
+            seen += mCounts[metric][bucket];
+            if (seen >= rank && seen > 0) {
+                return Math.min(BOUNDS[bucket], mMaxes[metric]);
+            }
+        }
+        return mMaxes[metric];
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < NAMES.length; i++) {
+            for (int j = 0; j <= BOUNDS.length; j++) {
+                mCounts[i][j] = 0;
+            }
+            mSums[i] = 0;
+            mMaxes[i] = 0;
+        }
+        mStarted = mLoaded = mFailed = mRetried = mGivenUp = mDuplicates = mCanceled = 0;
+    }
+
+    public synchronized void dump(PrintWriter writer) {
+        writer.println("Paging: started " + mStarted + ", loaded " + mLoaded + ", failed " + mFailed
+                + ", retried " + mRetried + ", given up " + mGivenUp
+                + ", dropped duplicate " + mDuplicates + ", dropped canceled " + mCanceled);
+        for (int metric = 0; metric < NAMES.length; metric++) {
+            long count = getCount(metric);
+            writer.print("  " + NAMES[metric] + ": count " + count);
+            if (count == 0) {
+                writer.println();
+                continue;
+            }
+            writer.println(", mean " + mSums[metric] / count + "ms, p50 " + getPercentile(metric, 50)
+                    + "ms, p90 " + getPercentile(metric, 90) + "ms, p99 " + getPercentile(metric, 99)
+                    + "ms, max " + mMaxes[metric] + "ms");
+            writer.print("   ");
+            for (int bucket = 0; bucket <= BOUNDS.length; bucket++) {
+                writer.print(bucket < BOUNDS.length ? " <=" + BOUNDS[bucket] : " >" + BOUNDS[BOUNDS.length - 1]);
+                writer.print(":" + mCounts[metric][bucket]);
+            }
+            writer.println();
+        }
+        writer.flush();
+    }
+}
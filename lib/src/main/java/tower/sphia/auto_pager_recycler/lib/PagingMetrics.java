@@ -0,0 +1,73 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+/**
+ * A listener of the timings of paging, to find out in production whether users are waiting for pages.
+ * Set it with {@link AutoPagerLoader#setPagingMetrics(PagingMetrics)} for the loading side and
+ * {@link AutoPagerManager#setPagingMetrics(PagingMetrics)} for the displaying side, the same instance
+ * could be set to both. {@link PagingHistogram} is a default implementation.
+ * <p>
+ * No timing is measured while no listener is set. The methods of the loading side are called on the
+ * worker threads of the loader, and should return quickly.
+ */
+public interface PagingMetrics {
+    /**
+     * The requested page was being loaded already
+     */
+    int DROP_DUPLICATE = 1;
+    /**
+     * The loading page was canceled, e.g. it's after the last page, or the first page is reloaded
+     */
+    int DROP_CANCELED = 2;
+
+    /**
+     * Called when the page at {@code index} is queued for loading.
+     */
+    void onLoadStarted(int index);
+
+    /**
+     * Called when the page at {@code index} has been loaded, from the cache or by {@link AutoPagerLoader#newPage(int)}.
+     *
+     * @param queueMillis the time the page waited for a free worker thread
+     * @param loadMillis  the time spent getting the page
+     * @param success     false if the page is not loaded
+     */
+    void onLoadFinished(int index, long queueMillis, long loadMillis, boolean success);
+
+    /**
+     * Called when the page at {@code index} has failed to load, after {@link #onLoadFinished(int, long, long, boolean)}.
+     * It's not called for a page which is still loaded, e.g. a page failed to be refreshed.
+     *
+     * @param attempt          the number of the failed retry, 0 for the first load
+     * @param retryDelayMillis the delay before the next retry, or -1 if the page is given up, see {@link RetryPolicy}
+     */
+    void onLoadFailed(int index, int attempt, long retryDelayMillis);
+
+    /**
+     * Called when a request to load the page at {@code index} has no effect.
+     *
+     * @param reason {@link #DROP_DUPLICATE} or {@link #DROP_CANCELED}
+     */
+    void onLoadDropped(int index, int reason);
+
+    /**
+     * Called on the main thread when the first items are set to the adapter.
+     *
+     * @param millis the time from the creation of the manager or the listener being set, whichever is later
+     */
+    void onFirstItems(long millis);
+
+    /**
+     * Called on the main thread when the footer scrolls into the screen while the page at {@code index},
+     * requested on scroll, is loading, that's when the user starts waiting.
+     *
+     * @param sinceTriggerMillis the time from requesting the page to the footer being visible
+     */
+    void onFooterShown(int index, long sinceTriggerMillis);
+
+    /**
+     * Called on the main thread when the page at {@code index} is delivered after {@link #onFooterShown(int, long)}.
+     *
+     * @param shownMillis the time the user waited with the footer visible
+     */
+    void onFooterHidden(int index, long shownMillis);
+}
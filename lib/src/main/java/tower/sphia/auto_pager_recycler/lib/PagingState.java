@@ -0,0 +1,222 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The paging state to be saved in {@code onSaveInstanceState()}, so the user keeps their place after the
+ * process is killed: the indices of the loaded pages, the {@link Page#last()} watermark, and the anchor
+ * item at the top of the screen with its offset. Optionally, the pages closest to the anchor are
+ * serialized with a {@link PageSerializer} within a budget of bytes, so the window around the anchor is
+ * shown again without being fetched.
+ * <p>
+ * Saved by {@link AutoPagerManager#saveState(PageSerializer, int)}, and restored by
+ * {@link AutoPagerLoader#restoreState(PagingState, PageSerializer)} together with
+ * {@link AutoPagerManager#restoreState(PagingState)}. {@link AutoPagerFragment} does both.
+ */
+public final class PagingState {
+    private static final String TAG = "PagingState";
+    private static final String KEY_PAGES = "pages";
+    private static final String KEY_LAST_PAGE = "last_page";
+    private static final String KEY_ANCHOR = "anchor";
+    private static final String KEY_PAYLOADS = "payloads";
+    /**
+     * The indices of the loaded pages in ascending order
+     */
+    private final int[] mPageIndices;
+    private final int mLastPage;
+    private final int mAnchorPage;
+    private final int mAnchorPositionInPage;
+    private final int mAnchorOffset;
+    /**
+     * The serialized pages, page index to bytes, may be empty
+     */
+    private final Bundle mPayloads;
+
+    private PagingState(int[] pageIndices, int lastPage, int anchorPage, int anchorPositionInPage,
+                        int anchorOffset, Bundle payloads) {
+        mPageIndices = pageIndices;
+        mLastPage = lastPage;
+        mAnchorPage = anchorPage;
+        mAnchorPositionInPage = anchorPositionInPage;
+        mAnchorOffset = anchorOffset;
+        mPayloads = payloads;
+    }
+
+    /**
+     * @param anchorPage      the page of the anchor item, or 0 to anchor at the first page
+     * @param serializer      the serializer of the pages, or null to save the indices only
+     * @param maxPayloadBytes the max total size of the serialized pages
+     */
+    static <P extends Page<?>> PagingState save(PageMap<P> pages, int anchorPage, int anchorPositionInPage,
+                                                int anchorOffset, PageSerializer<P> serializer, int maxPayloadBytes) {
+        // a partial page is fetched again from the start, as if it wasn't loaded
+        int[] pageIndices = new int[pages.size()];
+        int i = 0;
+        for (P page : pages) {
+            if (!pages.isPartial(page.index())) {
+                pageIndices[i++] = page.index();
+            }
+        }
+        if (i < pageIndices.length) {
+            pageIndices = Arrays.copyOf(pageIndices, i);
+        }
+        int lastPage = pages.isEmpty() ? 0 : pages.last().last();
+        if (anchorPage == 0 && !pages.isEmpty()) {
+            anchorPage = pages.first().index();
+        }
+        Bundle payloads = new Bundle();
+        if (serializer != null && pages.containsKey(anchorPage) && !pages.isPartial(anchorPage)) {
+            savePayloads(pages, anchorPage, serializer, maxPayloadBytes, payloads);
+        }
+        return new PagingState(pageIndices, lastPage, anchorPage, anchorPositionInPage, anchorOffset, payloads);
+    }
+
+    /**
+     * Serialize the anchor page, then the pages next to it alternately below and above, until a page
+     * doesn't fit in the budget or isn't loaded, so the saved pages are contiguous
+     */
+    private static <P extends Page<?>> void savePayloads(PageMap<P> pages, int anchorPage, PageSerializer<P> serializer,
+                                                         int maxPayloadBytes, Bundle payloads) {
+        PayloadWriter<P> writer = new PayloadWriter<>(serializer, maxPayloadBytes, payloads);
+        boolean below = writer.write(getFullPage(pages, anchorPage));
+        boolean above = below;
+        for (int distance = 1; below || above; distance++) {
+            below = below && writer.write(getFullPage(pages, anchorPage + distance));
+            above = above && writer.write(getFullPage(pages, anchorPage - distance));
+        }
+        if (PagingDebug.DEBUG) Log.d(TAG, "savePayloads() " + (maxPayloadBytes - writer.mRemaining) + " bytes saved");
+    }
+
+    /**
+     * @return the page at {@code index}, or null if it isn't loaded or holds only the items parsed so far
+     */
+    private static <P extends Page<?>> P getFullPage(PageMap<P> pages, int index) {
+        return pages.isPartial(index) ? null : pages.get(index);
+    }
+
+    /**
+     * @return the pages serialized in the state, the ones failed to be read are skipped
+     */
+    <P extends Page<?>> List<P> readPages(PageSerializer<P> serializer) {
+        List<P> pages = new ArrayList<>();
+        if (serializer == null) {
+            return pages;
+        }
+        for (int index : mPageIndices) {
+            byte[] bytes = mPayloads.getByteArray(String.valueOf(index));
+            if (bytes == null) {
+                continue;
+            }
+            try {
+                P page = serializer.read(new ByteArrayInputStream(bytes));
+                if (page.index() == index) {
+                    pages.add(page);
+                }
+            } catch (IOException e) {
+                if (PagingDebug.DEBUG) Log.e(TAG, "readPages() failed for page " + index, e);
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @return the state put into {@code bundle} by {@link #toBundle()}, or null if there is none
+     */
+    public static PagingState fromBundle(Bundle bundle) {
+        if (bundle == null) {
+            return null;
+        }
+        int[] pageIndices = bundle.getIntArray(KEY_PAGES);
+        int[] anchor = bundle.getIntArray(KEY_ANCHOR);
+        if (pageIndices == null || anchor == null || anchor.length != 3) {
+            return null;
+        }
+        Bundle payloads = bundle.getBundle(KEY_PAYLOADS);
+        return new PagingState(pageIndices, bundle.getInt(KEY_LAST_PAGE), anchor[0], anchor[1], anchor[2],
+                payloads == null ? new Bundle() : payloads);
+    }
+
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        bundle.putIntArray(KEY_PAGES, mPageIndices);
+        bundle.putInt(KEY_LAST_PAGE, mLastPage);
+        bundle.putIntArray(KEY_ANCHOR, new int[]{mAnchorPage, mAnchorPositionInPage, mAnchorOffset});
+        bundle.putBundle(KEY_PAYLOADS, mPayloads);
+        return bundle;
+    }
+
+    /**
+     * @return the indices of the pages loaded when the state was saved, in ascending order
+     */
+    public int[] getPageIndices() {
+        return mPageIndices.clone();
+    }
+
+    /**
+     * @return the index of the last page of the source when the state was saved, or 0 if no page was loaded
+     */
+    public int getLastPage() {
+        return mLastPage;
+    }
+
+    /**
+     * @return the page of the item at the top of the screen, or 0 if no page was loaded
+     */
+    public int getAnchorPage() {
+        return mAnchorPage;
+    }
+
+    public int getAnchorPositionInPage() {
+        return mAnchorPositionInPage;
+    }
+
+    /**
+     * @return the offset of the top of the anchor item from the top of the list
+     */
+    public int getAnchorOffset() {
+        return mAnchorOffset;
+    }
+
+    private static class PayloadWriter<P extends Page<?>> {
+        private final PageSerializer<P> mSerializer;
+        private final Bundle mPayloads;
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+        private int mRemaining;
+
+        PayloadWriter(PageSerializer<P> serializer, int maxBytes, Bundle payloads) {
+            mSerializer = serializer;
+            mRemaining = maxBytes;
+            mPayloads = payloads;
+        }
+
+        /**
+         * @return true if {@code page} is serialized within the remaining budget, false if it's null
+         */
+        boolean write(P page) {
+            if (page == null) {
+                return false;
+            }
+            mOut.reset();
+            try {
+                mSerializer.write(page, mOut);
+            } catch (IOException e) {
+                if (PagingDebug.DEBUG) Log.e(TAG, "write() failed for page " + page.index(), e);
+                return false;
+            }
+            if (mOut.size() > mRemaining) {
+                return false;
+            }
+            mRemaining -= mOut.size();
+            mPayloads.putByteArray(String.valueOf(page.index()), mOut.toByteArray());
+            return true;
+        }
+    }
+}
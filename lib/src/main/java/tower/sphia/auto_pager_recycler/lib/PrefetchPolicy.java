@@ -0,0 +1,30 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+/**
+ * The policy deciding how early {@link AutoPagerManager} starts loading the next page on scroll.
+ * Each manager holds its own policy, see {@link AutoPagerManager#setPrefetchPolicy(PrefetchPolicy)}.
+ */
+public interface PrefetchPolicy {
+
+    /**
+     * Called on every scroll event of the RecyclerView.
+     *
+     * @param dy               the amount of vertical scroll in pixels
+     * @param averageRowHeight the average height of the visible rows in pixels, a row of a grid holds
+     *                         as many items as its spans
+     */
+    void onScrolled(int dy, int averageRowHeight);
+
+    /**
+     * Called when a page requested on scroll has been delivered.
+     *
+     * @param latencyMillis the time from requesting the page to its delivery
+     */
+    void onPageLoaded(long latencyMillis);
+
+    /**
+     * @return the number of remaining invisible rows at which the next page starts loading, which is
+     * the number of items in a list, and the number of items divided by the spans in a grid
+     */
+    int getZoneSize();
+}
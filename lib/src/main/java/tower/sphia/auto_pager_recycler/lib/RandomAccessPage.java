@@ -0,0 +1,24 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+/**
+ * An optional extension of {@link Page} whose elements are accessed by position. {@link AutoPagerAdapter} gets
+ * the elements of such a page with {@link #get(int)} when they are bound instead of copying all of them when
+ * the page is set, so a page backed by a cursor or a parsed buffer could create an element only when its row
+ * is shown.
+ * <p>
+ * {@link #get(int)} is also called on a worker thread of the adapter to compare the items of a page replacing
+ * another, so it must be thread safe, and the page must not change after it's returned by the loader.
+ *
+ * @param <E> the type of element
+ */
+public interface RandomAccessPage<E> extends Page<E> {
+    /**
+     * @return the number of elements of the page
+     */
+    int size();
+
+    /**
+     * @param position the position of the element in the page, from 0 to {@link #size()} - 1
+     */
+    E get(int position);
+}
@@ -0,0 +1,136 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import android.os.SystemClock;
+
+import java.util.Random;
+
+/**
+ * Decides whether and when a page which failed to load is loaded again, set with
+ * {@link AutoPagerLoader#setRetryPolicy(RetryPolicy)}.
+ * <p>
+ * A failed page is retried up to {@code maxRetries} times, the n-th retry after a random delay between half
+ * and all of {@code initialDelayMillis * 2^(n-1)}, capped at {@code maxDelayMillis}, so the clients failing
+ * at the same time don't retry at the same time. A page which still fails is given up and shown as an
+ * error row the user could tap to load it again.
+ * <p>
+ * It's also a circuit breaker shared by all pages: after {@code failureThreshold} failures in a row no page
+ * is requested from the source for {@code openMillis}, they fail at once instead. Then one page is let through
+ * to test the source, which closes the circuit if it's loaded and opens it again otherwise.
+ * <p>
+ * An instance keeps the state of the circuit, so it should be set to one loader only.
+ */
+public class RetryPolicy {
+    private final int mMaxRetries;
+    private final long mInitialDelayMillis;
+    private final long mMaxDelayMillis;
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+    private final Random mRandom = new Random();
+    private int mFailures;
+    /**
+     * The time the circuit was opened, or -1 if it's closed
+     */
+    private long mOpenedTime = -1;
+    /**
+     * Whether a page is let through to test the source after the circuit has been open for {@link #mOpenMillis}
+     */
+    private boolean mTesting;
+
+    /**
+     * Thrown for a page which isn't requested from the source as the circuit is open
+     */
+    public static class CircuitOpenException extends DataNotLoadedException {
+    }
+
+    /**
+     * A policy retrying failed pages without a circuit breaker
+     */
+    public RetryPolicy(int maxRetries, long initialDelayMillis, long maxDelayMillis) {
+        this(maxRetries, initialDelayMillis, maxDelayMillis, 0, 0);
+    }
+
+    /**
+     * @param maxRetries         the max number of retries of a page, 0 for no retry
+     * @param initialDelayMillis the max delay before the first retry
+     * @param maxDelayMillis     the max delay before any retry
+     * @param failureThreshold   the number of failures in a row which opens the circuit, 0 for no circuit breaker
+     * @param openMillis         the time the circuit stays open
+     */
+    public RetryPolicy(int maxRetries, long initialDelayMillis, long maxDelayMillis, int failureThreshold, long openMillis) {
+        if (maxRetries < 0 || initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis
+                || failureThreshold < 0 || openMillis < 0) {
+            throw new IllegalArgumentException();
+        }
+        mMaxRetries = maxRetries;
+        mInitialDelayMillis = initialDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * @param attempt the number of the retry, from 1 on
+     * @return the delay before the retry, or -1 if the page should be given up
+     */
+    public synchronized long getRetryDelay(int attempt) {
+        if (attempt > mMaxRetries) {
+            return -1;
+        }
+        long delay = mInitialDelayMillis << Math.min(attempt - 1, 30);
+        if (delay > mMaxDelayMillis || delay < 0) {
+            delay = mMaxDelayMillis;
+        }
+        return delay / 2 + (long) (mRandom.nextDouble() * (delay - delay / 2));
+    }
+
+    /**
+     * Called on the loading thread before a page is requested from the source
+     *
+     * @return false if the circuit is open, so the page should fail without being requested
+     */
+    public synchronized boolean allowRequest() {
+        if (mOpenedTime < 0) {
+            return true;
+        }
+        if (!mTesting && SystemClock.uptimeMillis() - mOpenedTime >= mOpenMillis) {
+            mTesting = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called on the loading thread when a page requested from the source is loaded
+     */
+    public synchronized void onSuccess() {
+        mFailures = 0;
+        mOpenedTime = -1;
+        mTesting = false;
+    }
+
+    /**
+     * Called on the loading thread when a page requested from the source failed
+     */
+    public synchronized void onFailure() {
+        mFailures++;
+        if (mTesting || (mFailureThreshold > 0 && mFailures >= mFailureThreshold)) {
+            mOpenedTime = SystemClock.uptimeMillis();
+            mTesting = false;
+        }
+    }
+
+    /**
+     * Called on the loading thread when a page requested from the source has been canceled, which tells
+     * nothing about the source, so another page could be let through to test it
+     */
+    public synchronized void onCanceled() {
+        mTesting = false;
+    }
+
+    /**
+     * @return true if pages fail without being requested from the source
+     */
+    public synchronized boolean isOpen() {
+        return mOpenedTime >= 0;
+    }
+}
@@ -0,0 +1,29 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+/**
+ * A {@link PrefetchPolicy} which always starts loading the next page at the same number of
+ * remaining invisible rows, regardless of scrolling and loading speed.
+ */
+public class StaticPrefetchPolicy implements PrefetchPolicy {
+    private final int mZoneSize;
+
+    public StaticPrefetchPolicy(int zoneSize) {
+        if (zoneSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        mZoneSize = zoneSize;
+    }
+
+    @Override
+    public void onScrolled(int dy, int averageRowHeight) {
+    }
+
+    @Override
+    public void onPageLoaded(long latencyMillis) {
+    }
+
+    @Override
+    public int getZoneSize() {
+        return mZoneSize;
+    }
+}
@@ -0,0 +1,177 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import android.support.v7.widget.RecyclerView;
+import android.view.ViewGroup;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps the classes of the elements of {@link AutoPagerAdapter} to view types, each with a factory creating and
+ * binding its holders, so heterogeneous items get their own view types and holder pools instead of being
+ * dispatched with {@code instanceof} in one bind method. Set it with
+ * {@link AutoPagerAdapter#setViewTypeRegistry(ViewTypeRegistry)}; elements of no registered class still go
+ * through {@link AutoPagerAdapter#onCreateItemViewHolder(ViewGroup, int)} as {@link AutoPagerAdapter#ITEM}.
+ * <p>
+ * The max number of recycled holders of each type is applied to the {@link RecyclerView.RecycledViewPool}
+ * when the adapter is attached, and the time of creating and binding holders could be recorded per type and
+ * printed with {@link #dump(PrintWriter)}. It's used on the main thread only.
+ *
+ * @param <E> the type of element
+ */
+public class ViewTypeRegistry<E> {
+    /**
+     * The view type of the first registered class, the following ones are numbered on, so they never
+     * collide with the types of the special items
+     */
+    public static final int FIRST_VIEW_TYPE = 1000;
+    private final List<Entry> mEntries = new ArrayList<>();
+    /**
+     * The view type resolved for each element class, {@link AutoPagerAdapter#ITEM} if it's not registered
+     */
+    private final Map<Class<?>, Integer> mResolved = new HashMap<>();
+    private boolean mRecordTimings;
+
+    /**
+     * @see #register(Class, HolderFactory, int)
+     */
+    public <T extends E> int register(Class<T> elementClass, HolderFactory<T, ?> factory) {
+        return register(elementClass, factory, -1);
+    }
+
+    /**
+     * Register a class of elements. An element is of the first registered class it's an instance of.
+     *
+     * @param maxRecycledViews the max number of recycled holders of the type, or -1 to keep the default of
+     *                         the RecycledViewPool
+     * @return the view type of the class
+     */
+    public <T extends E> int register(Class<T> elementClass, HolderFactory<T, ?> factory, int maxRecycledViews) {
+        if (elementClass == null || factory == null || maxRecycledViews < -1) {
+            throw new IllegalArgumentException();
+        }
+        mEntries.add(new Entry(elementClass, factory, maxRecycledViews));
+        mResolved.clear();
+        return FIRST_VIEW_TYPE + mEntries.size() - 1;
+    }
+
+    /**
+     * @return the view type of {@code element}, or {@link AutoPagerAdapter#ITEM} if its class isn't registered
+     */
+    public int getViewType(E element) {
+        Class<?> elementClass = element.getClass();
+        Integer type = mResolved.get(elementClass);
+        if (type == null) {
+            type = AutoPagerAdapter.ITEM;
+            for (int i = 0; i < mEntries.size(); i++) {
+                if (mEntries.get(i).elementClass.isAssignableFrom(elementClass)) {
+                    type = FIRST_VIEW_TYPE + i;
+                    break;
+                }
+            }
+            mResolved.put(elementClass, type);
+        }
+        return type;
+    }
+
+    public boolean isRegistered(int viewType) {
+        return viewType >= FIRST_VIEW_TYPE && viewType < FIRST_VIEW_TYPE + mEntries.size();
+    }
+
+    /**
+     * @param recordTimings whether the time of creating and binding holders is recorded, false by default
+     */
+    public void setRecordTimings(boolean recordTimings) {
+        mRecordTimings = recordTimings;
+    }
+
+    RecyclerView.ViewHolder createViewHolder(ViewGroup parent, int viewType) {
+        Entry entry = mEntries.get(viewType - FIRST_VIEW_TYPE);
+        if (!mRecordTimings) {
+            return entry.factory.onCreateViewHolder(parent);
+        }
+        long start = System.nanoTime();
+        RecyclerView.ViewHolder holder = entry.factory.onCreateViewHolder(parent);
+        entry.createNanos += System.nanoTime() - start;
+        entry.createCount++;
+        return holder;
+    }
+
+    @SuppressWarnings("unchecked")
+    void bindViewHolder(RecyclerView.ViewHolder holder, E element) {
+        Entry entry = mEntries.get(holder.getItemViewType() - FIRST_VIEW_TYPE);
+        HolderFactory<Object, RecyclerView.ViewHolder> factory = (HolderFactory<Object, RecyclerView.ViewHolder>) entry.factory;
+        if (!mRecordTimings) {
+            factory.onBindViewHolder(holder, element);
+            return;
+        }
+        long start = System.nanoTime();
+        factory.onBindViewHolder(holder, element);
+        entry.bindNanos += System.nanoTime() - start;
+        entry.bindCount++;
+    }
+
+    /**
+     * Set the max number of recycled holders of every registered type which has one
+     */
+    void applyPoolSizes(RecyclerView.RecycledViewPool pool) {
+        for (int i = 0; i < mEntries.size(); i++) {
+            if (mEntries.get(i).maxRecycledViews != -1) {
+                pool.setMaxRecycledViews(FIRST_VIEW_TYPE + i, mEntries.get(i).maxRecycledViews);
+            }
+        }
+    }
+
+    public void resetTimings() {
+        for (Entry entry : mEntries) {
+            entry.createCount = entry.bindCount = 0;
+            entry.createNanos = entry.bindNanos = 0;
+        }
+    }
+
+    public void dump(PrintWriter writer) {
+        writer.println("View types: " + mEntries.size());
+        for (int i = 0; i < mEntries.size(); i++) {
+            Entry entry = mEntries.get(i);
+            writer.println("  " + (FIRST_VIEW_TYPE + i) + " " + entry.elementClass.getSimpleName()
+                    + ": created " + entry.createCount + ", mean " + mean(entry.createNanos, entry.createCount)
+                    + "us, bound " + entry.bindCount + ", mean " + mean(entry.bindNanos, entry.bindCount) + "us");
+        }
+        writer.flush();
+    }
+
+    private static long mean(long nanos, long count) {
+        return count == 0 ? 0 : nanos / count / 1000;
+    }
+
+    /**
+     * Creates and binds the holders of a view type
+     *
+     * @param <T>  the class of elements of the view type
+     * @param <VH> the type of holder
+     */
+    public interface HolderFactory<T, VH extends RecyclerView.ViewHolder> {
+        VH onCreateViewHolder(ViewGroup parent);
+
+        void onBindViewHolder(VH holder, T element);
+    }
+
+    private static class Entry {
+        final Class<?> elementClass;
+        final HolderFactory<?, ?> factory;
+        final int maxRecycledViews;
+        long createCount;
+        long createNanos;
+        long bindCount;
+        long bindNanos;
+
+        Entry(Class<?> elementClass, HolderFactory<?, ?> factory, int maxRecycledViews) {
+            this.elementClass = elementClass;
+            this.factory = factory;
+            this.maxRecycledViews = maxRecycledViews;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class AutoPagerSourceTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * The indices of the pages in each delivery, in the order delivered
+     */
+    private final List<List<Integer>> mDeliveries = new ArrayList<>();
+    private final List<PageMap<TestPage>> mDelivered = new ArrayList<>();
+    private final AutoPagerSource.Callback<TestPage> mCallback = new AutoPagerSource.Callback<TestPage>() {
+        @Override
+        public void onPagesLoaded(PageMap<TestPage> pages) {
+            List<Integer> indices = new ArrayList<>();
+            for (TestPage page : pages) {
+                indices.add(page.index());
+            }
+            mDeliveries.add(indices);
+            mDelivered.add(pages);
+        }
+    };
+    /**
+     * The fetches queued on {@link #mQueue}, run by the test in any order
+     */
+    private final List<Runnable> mQueued = new ArrayList<>();
+    private final Executor mQueue = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            mQueued.add(command);
+        }
+    };
+
+    @Before
+    public void setUp() {
+        mDeliveries.clear();
+        mDelivered.clear();
+        mQueued.clear();
+    }
+
+    @Test
+    public void pagesAreDeliveredInOrder() {
+        AutoPagerSource<TestPage> source = newSource(DIRECT, 0);
+        source.start();
+        source.load(2);
+        source.load(3);
+        assertEquals(Arrays.asList(list(1), list(1, 2), list(1, 2, 3)), mDeliveries);
+    }
+
+    @Test
+    public void prefetchedPagesWaitForLowerPages() {
+        AutoPagerSource<TestPage> source = newSource(mQueue, 0);
+        source.setPrefetchWindow(3);
+        source.start();
+        assertEquals(3, mQueued.size());
+        mQueued.get(2).run();
+        mQueued.get(1).run();
+        assertTrue(mDeliveries.isEmpty());
+        mQueued.get(0).run();
+        assertEquals(Arrays.asList(list(1, 2, 3)), mDeliveries);
+    }
+
+    @Test
+    public void batchIsDeliveredOnce() {
+        AutoPagerSource<TestPage> source = newSource(mQueue, 0);
+        source.start();
+        mQueued.remove(0).run();
+        // the pages estimated to fill the screen
+        source.loadPages(2, 3);
+        assertEquals(3, mQueued.size());
+        mQueued.get(0).run();
+        mQueued.get(2).run();
+        mQueued.get(1).run();
+        // a single delivery, so a single update of the adapter
+        assertEquals(Arrays.asList(list(1), list(1, 2, 3, 4)), mDeliveries);
+    }
+
+    @Test
+    public void failedPageIsDelivered() {
+        AutoPagerSource<TestPage> source = newSource(DIRECT, 2);
+        source.start();
+        source.load(2);
+        assertEquals(Arrays.asList(list(1), list(1)), mDeliveries);
+        assertTrue(mDelivered.get(1).isFailed(2));
+    }
+
+    @Test
+    public void failuresAreReportedWithTheirCause() {
+        final List<String> failures = new ArrayList<>();
+        AutoPagerSource<TestPage> source = newSource(DIRECT, 2);
+        // no retry, the circuit opens on the first failure
+        source.setRetryPolicy(new RetryPolicy(0, 0, 0, 1, 60 * 1000));
+        source.setOnPageFailedListener(new AutoPagerManager.OnPageFailedListener() {
+            @Override
+            public void onPageFailed(int page, Throwable cause, boolean willRetry) {
+                failures.add(page + " " + cause.getClass().getSimpleName() + " " + willRetry);
+            }
+        });
+        source.start();
+        source.load(2);
+        source.load(3);
+        assertEquals(Arrays.asList("2 DataNotLoadedException false", "3 CircuitOpenException false"), failures);
+        assertTrue(mDelivered.get(mDelivered.size() - 1).isFailed(3));
+    }
+
+    @Test
+    public void stoppedSourceDeliversOnStart() {
+        AutoPagerSource<TestPage> source = newSource(DIRECT, 0);
+        source.start();
+        source.stop();
+        source.load(2);
+        assertEquals(Arrays.asList(list(1)), mDeliveries);
+        source.start();
+        assertEquals(Arrays.asList(list(1), list(1, 2)), mDeliveries);
+    }
+
+    @Test
+    public void cancelListenerRunsOffTheCancelingThread() throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch canceled = new CountDownLatch(1);
+        final CancellationToken[] token = new CancellationToken[1];
+        final Thread[] listenerThread = new Thread[1];
+        AutoPagerSource<TestPage> source = new AutoPagerSource<TestPage>(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command).start();
+            }
+        }, DIRECT) {
+            @Override
+            protected TestPage newPage(int index, CancellationToken cancellationToken) throws DataNotLoadedException {
+                token[0] = cancellationToken;
+                cancellationToken.setOnCancelListener(new Runnable() {
+                    @Override
+                    public void run() {
+                        listenerThread[0] = Thread.currentThread();
+                        canceled.countDown();
+                    }
+                });
+                started.countDown();
+                try {
+                    canceled.await();
+                } catch (InterruptedException e) {
+                    // interrupted by the cancellation as well
+                }
+                cancellationToken.throwIfCanceled();
+                return new TestPage(index, 3);
+            }
+        };
+        source.setCallback(mCallback);
+        source.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        source.cancelLoading();
+        // marked at once, while the listener runs on another thread
+        assertTrue(token[0].isCanceled());
+        assertTrue(canceled.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), listenerThread[0]);
+        assertTrue(mDeliveries.isEmpty());
+    }
+
+    /**
+     * @param failedPage the index of the page failing to load, or 0 if all pages are loaded
+     */
+    private AutoPagerSource<TestPage> newSource(Executor executor, final int failedPage) {
+        AutoPagerSource<TestPage> source = new AutoPagerSource<TestPage>(executor, DIRECT) {
+            @Override
+            protected TestPage newPage(int index, CancellationToken token) throws DataNotLoadedException {
+                if (index == failedPage) {
+                    throw new DataNotLoadedException();
+                }
+                return new TestPage(index, 3);
+            }
+        };
+        source.setCallback(mCallback);
+        return source;
+    }
+
+    private static List<Integer> list(Integer... indices) {
+        return Arrays.asList(indices);
+    }
+}
@@ -0,0 +1,116 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class ItemDiffTest {
+
+    @Test
+    public void insertAtTopIsOneInsert() {
+        List<ItemDiff.Op> ops = diff("a b c d", "x y a b c d");
+        assertEquals(1, ops.size());
+        assertOp(ops.get(0), ItemDiff.Op.INSERT, 0, 2);
+    }
+
+    @Test
+    public void editsInTheMiddleAreMinimal() {
+        // trimming the common head and tail alone would replace everything from b to e
+        List<ItemDiff.Op> ops = diff("a b c d e f", "a x b d e y f");
+        assertEquals(3, countEdits(ops));
+        assertApplied("a b c d e f", "a x b d e y f", ops);
+    }
+
+    @Test
+    public void changedContentIsNotifiedInPlace() {
+        List<ItemDiff.Op> ops = diff("a b c", "a b* c");
+        assertEquals(1, ops.size());
+        assertOp(ops.get(0), ItemDiff.Op.CHANGE, 1, 1);
+    }
+
+    @Test
+    public void movesAndMixedEditsReplayToTheNewList() {
+        String[][] cases = {
+                {"a b c d e", "e a b c d"},
+                {"a b c d e", "b a d c"},
+                {"a b c", ""},
+                {"", "a b"},
+                {"a b c d e f g h", "h g f e d c b a"},
+        };
+        for (String[] c : cases) {
+            assertApplied(c[0], c[1], diff(c[0], c[1]));
+        }
+    }
+
+    private static List<String> items(String items) {
+        return items.isEmpty() ? new ArrayList<String>() : new ArrayList<>(Arrays.asList(items.split(" ")));
+    }
+
+    /**
+     * Items of the same letter are the same, a "*" marks a changed content
+     */
+    private static List<ItemDiff.Op> diff(String oldItems, String newItems) {
+        final List<String> oldList = items(oldItems);
+        final List<String> newList = items(newItems);
+        return ItemDiff.diff(oldList.size(), newList.size(), new ItemDiff.Callback() {
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return oldList.get(oldPosition).charAt(0) == newList.get(newPosition).charAt(0);
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return oldList.get(oldPosition).equals(newList.get(newPosition));
+            }
+        });
+    }
+
+    private static int countEdits(List<ItemDiff.Op> ops) {
+        int edits = 0;
+        for (ItemDiff.Op op : ops) {
+            if (op.type == ItemDiff.Op.INSERT || op.type == ItemDiff.Op.REMOVE) {
+                edits += op.count;
+            }
+        }
+        return edits;
+    }
+
+    /**
+     * Replay the operations the way the adapter notifies them, and compare the result with the new list
+     */
+    private static void assertApplied(String oldItems, String newItems, List<ItemDiff.Op> ops) {
+        List<String> list = items(oldItems);
+        List<String> newList = items(newItems);
+        for (ItemDiff.Op op : ops) {
+            switch (op.type) {
+                case ItemDiff.Op.REMOVE:
+                    list.subList(op.position, op.position + op.count).clear();
+                    break;
+                case ItemDiff.Op.INSERT:
+                    list.addAll(op.position, newList.subList(op.position, op.position + op.count));
+                    break;
+                case ItemDiff.Op.MOVE:
+                    list.add(op.count, list.remove(op.position));
+                    break;
+                case ItemDiff.Op.CHANGE:
+                    for (int i = op.position; i < op.position + op.count; i++) {
+                        list.set(i, newList.get(i));
+                    }
+                    break;
+                default:
+                    list = new ArrayList<>(newList);
+            }
+        }
+        assertEquals(newList, list);
+    }
+
+    private static void assertOp(ItemDiff.Op op, int type, int position, int count) {
+        assertEquals(type, op.type);
+        assertEquals(position, op.position);
+        assertEquals(count, op.count);
+    }
+}
@@ -0,0 +1,112 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ItemIndexTest {
+
+    @Test
+    public void listPageIsReadInPlace() {
+        TestPage page = new TestPage(1, 3) {
+            @Override
+            public Object[] toArray() {
+                throw new AssertionError("copied");
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                throw new AssertionError("copied");
+            }
+        };
+        ItemIndex<String> index = ItemIndex.build(Arrays.asList(page), true, null);
+        assertEquals(4, index.size());
+        assertSame(page.get(2), index.getItem(2));
+        assertEquals(ItemIndex.END, index.getType(3));
+    }
+
+    @Test
+    public void sameElementIsKnownByPageInstance() {
+        TestPage first = new TestPage(1, 3);
+        ItemIndex<String> oldIndex = ItemIndex.build(Arrays.asList(first, new TestPage(2, 3)), false, null);
+        // page 2 is refreshed with equal items, page 1 is shared
+        ItemIndex<String> newIndex = ItemIndex.build(Arrays.asList(first, new TestPage(2, 3)), false, oldIndex);
+        assertTrue(oldIndex.isSameElement(1, newIndex, 1));
+        assertFalse(oldIndex.isSameElement(1, newIndex, 2));
+        assertFalse(oldIndex.isSameElement(4, newIndex, 4));
+        // the footer isn't an element
+        assertFalse(oldIndex.isSameElement(6, newIndex, 6));
+    }
+
+    @Test
+    public void iterablePageIsCopiedOnce() {
+        final TestPage items = new TestPage(1, 2);
+        Page<String> page = new Page<String>() {
+            @Override
+            public int index() {
+                return 1;
+            }
+
+            @Override
+            public int last() {
+                return 5;
+            }
+
+            @Override
+            public Iterator<String> iterator() {
+                return items.iterator();
+            }
+        };
+        ItemIndex<String> first = ItemIndex.build(Arrays.asList(page), false, null);
+        items.clear();
+        // the elements copied for the same page instance are reused
+        ItemIndex<String> second = ItemIndex.build(Arrays.asList(page), false, first);
+        assertEquals(3, second.size());
+        assertEquals("1-1", second.getItem(1));
+    }
+
+    @Test
+    public void missingPagesAreDividers() {
+        ItemIndex<String> index = ItemIndex.build(PageMap.<TestPage>empty()
+                .put(new TestPage(1, 2)).put(new TestPage(4, 1)), false, null);
+        // 1-0 1-1 divider 4-0 footer
+        assertEquals(5, index.size());
+        assertEquals(ItemIndex.DIVIDER, index.getType(2));
+        assertEquals(3, index.getPageIndex(2));
+        assertEquals("4-0", index.getItem(3));
+        assertEquals(4, index.getPageIndex(3));
+        assertEquals(0, index.getPositionInPage(3));
+        assertEquals(3, index.getPosition(4, 0));
+        assertEquals(-1, index.getPosition(2, 0));
+        assertEquals(ItemIndex.FOOTER, index.getType(4));
+    }
+
+    @Test
+    public void appendKeepsTheExistingSegments() {
+        ItemIndex<String> index = ItemIndex.build(Arrays.asList(new TestPage(1, 2)), false, null);
+        ItemIndex<String> appended = index.append(new TestPage(2, 3), false, new int[0]);
+        assertEquals(6, appended.size());
+        assertEquals("1-1", appended.getItem(1));
+        assertEquals("2-2", appended.getItem(4));
+        assertEquals(ItemIndex.FOOTER, appended.getType(5));
+    }
+
+    @Test
+    public void fillPagesAreEstimatedFromItemsPerPage() {
+        // 10 items and the footer
+        ItemIndex<String> index = ItemIndex.build(Arrays.asList(new TestPage(1, 10)), false, null);
+        // 20 items fit in 1000px, 3 more rows and 1 more item fill the screen, 13 missing items are 2 pages
+        assertEquals(2, index.estimateFillPages(1000, 50, 1, 10));
+        // 2 spans of 50px rows, 36 missing items
+        assertEquals(4, index.estimateFillPages(1000, 25, 2, 10));
+        assertEquals(3, index.estimateFillPages(1000, 25, 2, 3));
+        // unknown until laid out
+        assertEquals(1, index.estimateFillPages(1000, 0, 1, 10));
+    }
+}
@@ -0,0 +1,87 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PageCacheTest {
+    private static final long HOUR = 60 * 60 * 1000;
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void memoryEvictsLeastRecentlyUsed() {
+        PageCache<TestPage> cache = new PageCache<>(mFolder.getRoot(), null, 2, 0, HOUR);
+        TestPage one = new TestPage(1, 2);
+        cache.put(one);
+        cache.put(new TestPage(2, 2));
+        assertSame(one, cache.get(1).page);
+        cache.put(new TestPage(3, 2));
+        assertNull(cache.get(2));
+        assertSame(one, cache.get(1).page);
+        assertNotNull(cache.get(3));
+    }
+
+    @Test
+    public void entryIsStaleAfterTimeToLive() {
+        PageCache<TestPage> fresh = new PageCache<>(mFolder.getRoot(), null, 2, 0, HOUR);
+        fresh.put(new TestPage(1, 2));
+        assertTrue(fresh.get(1).isFresh());
+        PageCache<TestPage> stale = new PageCache<>(mFolder.getRoot(), null, 2, 0, 0);
+        stale.put(new TestPage(1, 2));
+        assertFalse(stale.get(1).isFresh());
+    }
+
+    @Test
+    public void pageSurvivesOnDisk() throws IOException {
+        File directory = mFolder.newFolder();
+        PageCache<TestPage> cache = new PageCache<>(directory, TestPage.SERIALIZER, 1, 1024 * 1024, HOUR);
+        cache.put(new TestPage(1, 3));
+        long time = cache.get(1).time;
+        // a new cache over the same directory has nothing in memory
+        PageCache<TestPage> reopened = new PageCache<>(directory, TestPage.SERIALIZER, 1, 1024 * 1024, HOUR);
+        PageCache.Entry<TestPage> entry = reopened.get(1);
+        assertEquals(new TestPage(1, 3), entry.page);
+        assertEquals(1, entry.page.index());
+        assertEquals(time, entry.time);
+        assertTrue(entry.isFresh());
+    }
+
+    @Test
+    public void diskIsTrimmedToMaxBytes() throws IOException {
+        File directory = mFolder.newFolder();
+        PageCache<TestPage> cache = new PageCache<>(directory, TestPage.SERIALIZER, 0, 200, HOUR);
+        for (int i = 1; i <= 10; i++) {
+            cache.put(new TestPage(i, 5));
+        }
+        long bytes = 0;
+        for (File file : directory.listFiles()) {
+            bytes += file.length();
+        }
+        assertTrue(bytes <= 200);
+        // files written within the same millisecond are trimmed in any order
+        assertTrue(directory.listFiles().length < 10);
+    }
+
+    @Test
+    public void mismatchedFileIsRejected() throws IOException {
+        File directory = mFolder.newFolder();
+        PageCache<TestPage> cache = new PageCache<>(directory, TestPage.SERIALIZER, 0, 1024 * 1024, HOUR);
+        cache.put(new TestPage(1, 3));
+        File file = new File(directory, "page_1");
+        File renamed = new File(directory, "page_2");
+        assertTrue(file.renameTo(renamed));
+        assertNull(cache.get(2));
+        assertFalse(renamed.exists());
+    }
+}
@@ -0,0 +1,97 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import org.junit.Test;
+
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PageMapTest {
+
+    @Test
+    public void putReturnsNewInstanceAndKeepsOld() {
+        PageMap<TestPage> one = PageMap.<TestPage>empty().put(new TestPage(1, 3));
+        PageMap<TestPage> two = one.put(new TestPage(2, 3));
+        assertEquals(1, one.size());
+        assertNull(one.get(2));
+        assertEquals(2, two.size());
+        assertSame(one.get(1), two.get(1));
+    }
+
+    @Test
+    public void trailingPutIsAppend() {
+        PageMap<TestPage> base = PageMap.<TestPage>empty().put(new TestPage(1, 3)).put(new TestPage(3, 3));
+        assertTrue(base.put(new TestPage(4, 3)).isAppendOf(base));
+        assertFalse(base.put(new TestPage(2, 3)).isAppendOf(base));
+        assertFalse(base.put(new TestPage(3, 5)).isAppendOf(base));
+        assertFalse(base.put(new TestPage(4, 3)).put(new TestPage(5, 3)).isAppendOf(base));
+    }
+
+    @Test
+    public void putOnSnapshotIsAppendOfDelivered() {
+        // a loader delivering `delivered` may add the next page to a snapshot of it
+        PageMap<TestPage> delivered = PageMap.<TestPage>empty().put(new TestPage(1, 3));
+        PageMap<TestPage> next = delivered.snapshot().put(new TestPage(2, 3));
+        assertTrue(next.isAppendOf(delivered));
+        assertFalse(delivered.snapshot().isAppendOf(delivered));
+    }
+
+    @Test
+    public void partialPageIsMarkedUntilFullyLoaded() {
+        PageMap<TestPage> base = PageMap.<TestPage>empty().put(new TestPage(1, 3));
+        PageMap<TestPage> partial = base.put(new TestPage(2, 1), true);
+        assertTrue(partial.isPartial(2));
+        assertTrue(partial.isAppendOf(base));
+        PageMap<TestPage> grown = partial.grow(new TestPage(2, 2), true);
+        assertTrue(grown.isPartial(2));
+        assertTrue(grown.isGrowthOf(partial));
+        // other pages merged meanwhile, e.g. refreshed in background, keep the mark
+        assertTrue(grown.put(new TestPage(1, 3)).isPartial(2));
+        assertTrue(grown.snapshot().isPartial(2));
+        assertFalse(grown.grow(new TestPage(2, 3), false).isPartial(2));
+        assertFalse(grown.remove(2).isPartial(2));
+        assertFalse(base.isPartial(1));
+    }
+
+    @Test
+    public void failureKeepsTheSamePages() {
+        PageMap<TestPage> pages = PageMap.<TestPage>empty().put(new TestPage(1, 3));
+        assertTrue(pages.fail(2).hasSamePages(pages));
+        assertFalse(pages.put(new TestPage(2, 3)).hasSamePages(pages));
+        assertFalse(pages.hasSamePages(null));
+    }
+
+    @Test
+    public void sortedMapRoundTrip() {
+        SortedMap<Integer, TestPage> map = new TreeMap<>();
+        map.put(3, new TestPage(3, 1));
+        map.put(1, new TestPage(1, 1));
+        PageMap<TestPage> pages = PageMap.fromMap(map);
+        assertEquals(2, pages.size());
+        assertSame(map.get(3), pages.last());
+        assertEquals(map, pages.toSortedMap());
+    }
+
+    @Test
+    public void perLoadCostStaysLogarithmic() {
+        // every put copies at most one path of the tree, whose length grows with log(n) only
+        PageMap<TestPage> pages = PageMap.empty();
+        for (int i = 1; i <= 10000; i++) {
+            PageMap<TestPage> next = pages.put(new TestPage(i, 1));
+            assertTrue(next.isAppendOf(pages));
+            pages = next;
+        }
+        assertEquals(10000, pages.size());
+        // an AVL tree of n nodes is at most 1.44 * log2(n) high
+        assertTrue("height " + pages.height(), pages.height() <= 1.44 * Math.log(10000) / Math.log(2) + 1);
+        int expected = 1;
+        for (TestPage page : pages) {
+            assertEquals(expected++, page.index());
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PageRequestCoordinatorTest {
+    /**
+     * The pages passed on, a batch of pages as its first page negated
+     */
+    private final List<Integer> mLoaded = new ArrayList<>();
+    /**
+     * The pages whose requests are dropped as duplicates
+     */
+    private final List<Integer> mDuplicates = new ArrayList<>();
+    private final AutoPagerManager.BatchLoadPageMethod mTarget = new AutoPagerManager.BatchLoadPageMethod() {
+        @Override
+        public void loadPage(int page) {
+            mLoaded.add(page);
+        }
+
+        @Override
+        public void loadPages(int firstPage, int count) {
+            mLoaded.add(-firstPage);
+        }
+    };
+    private final PageRequestCoordinator mCoordinator = new PageRequestCoordinator(mTarget);
+
+    @Test
+    public void requestsAreOrderedByPriority() {
+        mCoordinator.request(5, PageRequestCoordinator.PRIORITY_PREFETCH);
+        mCoordinator.request(2, PageRequestCoordinator.PRIORITY_FILL);
+        mCoordinator.request(3, PageRequestCoordinator.PRIORITY_FILL);
+        mCoordinator.request(8, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.dispatch();
+        assertEquals(Arrays.asList(8, -2, 5), mLoaded);
+    }
+
+    @Test
+    public void onlyDeliveredPagesAreRequestedAgain() {
+        mCoordinator.request(2, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.request(3, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.request(4, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.dispatch();
+        mLoaded.clear();
+        PageMap<TestPage> pages = PageMap.<TestPage>empty().put(new TestPage(1, 3)).put(new TestPage(2, 3))
+                .fail(4);
+        mCoordinator.onPagesDelivered(pages);
+        mCoordinator.request(2, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.request(3, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.request(4, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.dispatch();
+        // page 3 is still being loaded
+        assertEquals(Arrays.asList(2, 4), mLoaded);
+    }
+
+    @Test
+    public void droppedPagesAreRequestedAgain() {
+        PageMap<TestPage> pages = PageMap.<TestPage>empty().put(new TestPage(1, 3)).put(new TestPage(2, 3));
+        mCoordinator.onPagesDelivered(pages);
+        mCoordinator.request(1, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.request(3, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.dispatch();
+        mLoaded.clear();
+        // reloading the first page has canceled page 3
+        mCoordinator.onPagesDelivered(PageMap.<TestPage>empty().put(new TestPage(1, 3)));
+        mCoordinator.request(3, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.dispatch();
+        assertEquals(Arrays.asList(3), mLoaded);
+    }
+
+    @Test
+    public void pagesAfterLastPageAreForgotten() {
+        mCoordinator.request(2, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.request(3, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.dispatch();
+        mLoaded.clear();
+        // page 3 is canceled as page 2 is the last page
+        mCoordinator.onPagesDelivered(PageMap.<TestPage>empty().put(new TestPage(1, 3, 2))
+                .put(new TestPage(2, 3, 2)));
+        mCoordinator.request(3, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.dispatch();
+        assertEquals(Arrays.asList(3), mLoaded);
+    }
+
+    @Test
+    public void droppedLoadsAreRequestedAgain() {
+        mCoordinator.request(2, PageRequestCoordinator.PRIORITY_FILL);
+        mCoordinator.request(3, PageRequestCoordinator.PRIORITY_FILL);
+        mCoordinator.dispatch();
+        mLoaded.clear();
+        mCoordinator.onLoadDropped(2, 2);
+        mCoordinator.request(3, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.dispatch();
+        assertEquals(Arrays.asList(3), mLoaded);
+    }
+
+    @Test
+    public void reloadingFirstPageForgetsOtherPages() {
+        mCoordinator.onPagesDelivered(PageMap.<TestPage>empty().put(new TestPage(1, 3)));
+        mCoordinator.request(2, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.dispatch();
+        mCoordinator.request(1, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.dispatch();
+        mLoaded.clear();
+        // the reloaded first page is delivered alone, without shrinking the pages
+        mCoordinator.onPagesDelivered(PageMap.<TestPage>empty().put(new TestPage(1, 3)));
+        mCoordinator.request(2, PageRequestCoordinator.PRIORITY_VISIBLE);
+        mCoordinator.dispatch();
+        assertEquals(Arrays.asList(2), mLoaded);
+    }
+
+    @Test
+    public void pendingPagesExpire() {
+        PageRequestCoordinator coordinator = new PageRequestCoordinator(mTarget, 0);
+        coordinator.request(2, PageRequestCoordinator.PRIORITY_VISIBLE);
+        coordinator.dispatch();
+        // the load has been dropped silently, without any delivery
+        coordinator.request(2, PageRequestCoordinator.PRIORITY_VISIBLE);
+        coordinator.dispatch();
+        assertEquals(Arrays.asList(2, 2), mLoaded);
+    }
+
+    @Test
+    public void raisingPriorityIsNotDuplicate() {
+        mCoordinator.setMetrics(new PagingMetrics() {
+            @Override
+            public void onLoadStarted(int index) {
+            }
+
+            @Override
+            public void onLoadFinished(int index, long queueMillis, long loadMillis, boolean success) {
+            }
+
+            @Override
+            public void onLoadFailed(int index, int attempt, long retryDelayMillis) {
+            }
+
+            @Override
+            public void onLoadDropped(int index, int reason) {
+                assertEquals(PagingMetrics.DROP_DUPLICATE, reason);
+                mDuplicates.add(index);
+            }
+
+            @Override
+            public void onFirstItems(long millis) {
+            }
+
+            @Override
+            public void onFooterShown(int index, long sinceTriggerMillis) {
+            }
+
+            @Override
+            public void onFooterHidden(int index, long shownMillis) {
+            }
+        });
+        mCoordinator.request(2, PageRequestCoordinator.PRIORITY_PREFETCH);
+        mCoordinator.request(2, PageRequestCoordinator.PRIORITY_VISIBLE);
+        assertTrue(mDuplicates.isEmpty());
+        mCoordinator.request(2, PageRequestCoordinator.PRIORITY_FILL);
+        mCoordinator.dispatch();
+        mCoordinator.request(2, PageRequestCoordinator.PRIORITY_VISIBLE);
+        assertEquals(Arrays.asList(2, 2), mDuplicates);
+        assertEquals(Arrays.asList(2), mLoaded);
+    }
+}
@@ -0,0 +1,36 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void failedTestReopensCircuit() {
+        RetryPolicy policy = new RetryPolicy(0, 0, 0, 1, 0);
+        assertTrue(policy.allowRequest());
+        policy.onFailure();
+        assertTrue(policy.isOpen());
+        // one page is let through to test the source
+        assertTrue(policy.allowRequest());
+        assertFalse(policy.allowRequest());
+        policy.onFailure();
+        assertTrue(policy.isOpen());
+        assertTrue(policy.allowRequest());
+        policy.onSuccess();
+        assertFalse(policy.isOpen());
+    }
+
+    @Test
+    public void canceledTestLetsAnotherPageThrough() {
+        RetryPolicy policy = new RetryPolicy(0, 0, 0, 1, 0);
+        policy.onFailure();
+        assertTrue(policy.allowRequest());
+        assertFalse(policy.allowRequest());
+        policy.onCanceled();
+        assertTrue(policy.isOpen());
+        assertTrue(policy.allowRequest());
+    }
+}
@@ -0,0 +1,62 @@
+package tower.sphia.auto_pager_recycler.lib;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+
+/**
+ * A page of {@code size} items named "index-position"
+ */
+class TestPage extends ArrayList<String> implements Page<String> {
+    static final PageSerializer<TestPage> SERIALIZER = new PageSerializer<TestPage>() {
+        @Override
+        public void write(TestPage page, OutputStream out) throws IOException {
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(page.mIndex);
+            data.writeInt(page.mLast);
+            data.writeInt(page.size());
+            for (String item : page) {
+                data.writeUTF(item);
+            }
+            data.flush();
+        }
+
+        @Override
+        public TestPage read(InputStream in) throws IOException {
+            DataInputStream data = new DataInputStream(in);
+            TestPage page = new TestPage(data.readInt(), 0, data.readInt());
+            int size = data.readInt();
+            for (int i = 0; i < size; i++) {
+                page.add(data.readUTF());
+            }
+            return page;
+        }
+    };
+    private final int mIndex;
+    private final int mLast;
+
+    TestPage(int index, int size) {
+        this(index, size, Integer.MAX_VALUE);
+    }
+
+    TestPage(int index, int size, int last) {
+        mIndex = index;
+        mLast = last;
+        for (int i = 0; i < size; i++) {
+            add(index + "-" + i);
+        }
+    }
+
+    @Override
+    public int index() {
+        return mIndex;
+    }
+
+    @Override
+    public int last() {
+        return mLast;
+    }
+}